@@ -0,0 +1,236 @@
+package cool.compiler;
+
+import cool.lexer.CoolLexer;
+import cool.parser.CoolParser;
+import cool.tester.ProgramGenerator;
+import org.antlr.v4.runtime.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Throughput of each phase of the compiler, over all the programs of a test
+ * suite at once, or over a program made by {@link ProgramGenerator}.
+ *
+ * Only the phase itself is timed; its input is made by the phases before it
+ * during setup. The semantic passes and code generation change the AST and
+ * the symbol table, so those get a fresh AST for every invocation, which
+ * takes longer than the phase on the smallest inputs.
+ *
+ * The lexer also reports tokens per second, as the "tokens" counter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseBenchmark {
+    // Nothing is reported, whether the programs have errors or not.
+    private static final PrintStream NO_OUTPUT = new PrintStream(OutputStream.nullOutputStream());
+
+    private static final ANTLRErrorListener NO_ERRORS = new BaseErrorListener();
+
+    @State(Scope.Benchmark)
+    public static class Sources {
+        // A directory of tests/, or the shape of a generated program.
+        @Param({"tema1", "tema2", "CHAIN", "WIDE", "CASE", "NESTED_LET", "NESTED_BLOCK",
+                "DISPATCH_CHAIN", "STRINGS"})
+        public String input;
+
+        // Size of the generated programs.
+        @Param("1000")
+        public int size;
+
+        List<CharStream> texts = new ArrayList<>();
+        List<List<? extends Token>> tokens = new ArrayList<>();
+        // Parse trees of the programs without lexical or syntax errors, the
+        // only ones the compiler analyzes, and the names of their files.
+        List<CoolParser.ProgramContext> trees = new ArrayList<>();
+        List<String> fileNames = new ArrayList<>();
+        // Index in trees of the programs that are correct, for code
+        // generation.
+        List<Integer> correct = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            for (var file : files()) {
+                var text = CharStreams.fromPath(file);
+                texts.add(text);
+                var lexer = new CoolLexer(text);
+                lexer.removeErrorListeners();
+                var fileTokens = lexer.getAllTokens();
+                tokens.add(fileTokens);
+
+                var errors = new BaseErrorListener() {
+                    boolean found;
+
+                    @Override
+                    public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                                            int charPositionInLine, String msg, RecognitionException e) {
+                        found = true;
+                    }
+                };
+                var parser = new CoolParser(new CommonTokenStream(new ListTokenSource(fileTokens)));
+                var tree = Compiler.parse(parser, errors);
+                if (errors.found || fileTokens.stream().anyMatch(token -> token.getType() == CoolLexer.ERROR))
+                    continue;
+                trees.add(tree);
+                fileNames.add(file.toString());
+            }
+            for (int i = 0; i < trees.size(); i++) {
+                var context = new Analysis(this, i).defined().resolved().context;
+                if (!context.symbolTable.hasSemanticErrors())
+                    correct.add(i);
+            }
+        }
+
+        private List<Path> files() throws IOException {
+            if (!input.startsWith("tema")) {
+                var file = Files.createTempFile("generated", ".cl");
+                file.toFile().deleteOnExit();
+                var shape = ProgramGenerator.Shape.valueOf(input);
+                Files.writeString(file, ProgramGenerator.generate(shape, size, true));
+                return List.of(file);
+            }
+            var directory = Paths.get(System.getProperty("cool.tests", "../tests"), input);
+            try (var files = Files.list(directory)) {
+                return files.filter(file -> file.toString().endsWith(".cl"))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        }
+    }
+
+    // The AST of each program, and the context of its compilation.
+    static class Analysis {
+        final ASTNode ast;
+        final CompilationContext context = new CompilationContext(NO_OUTPUT);
+
+        Analysis(Sources sources, int index) {
+            // As the compiler does, nodes know the file they are in.
+            context.files.add(sources.fileNames.get(index));
+            ast = sources.trees.get(index).accept(new ASTConstructionVisitor(0));
+        }
+
+        Analysis defined() {
+            ast.accept(new DefinitionPassVisitor(context));
+            return this;
+        }
+
+        Analysis resolved() {
+            ast.accept(new ResolutionPassVisitor(context));
+            return this;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Undefined {
+        List<Analysis> programs;
+
+        @Setup(Level.Invocation)
+        public void setUp(Sources sources) {
+            programs = new ArrayList<>();
+            for (int i = 0; i < sources.trees.size(); i++)
+                programs.add(new Analysis(sources, i));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Defined {
+        List<Analysis> programs;
+
+        @Setup(Level.Invocation)
+        public void setUp(Sources sources) {
+            programs = new ArrayList<>();
+            for (int i = 0; i < sources.trees.size(); i++)
+                programs.add(new Analysis(sources, i).defined());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Resolved {
+        @Param({"true", "false"})
+        public boolean optimize;
+
+        List<Analysis> programs;
+
+        @Setup(Level.Invocation)
+        public void setUp(Sources sources) {
+            programs = new ArrayList<>();
+            for (int i : sources.correct)
+                programs.add(new Analysis(sources, i).defined().resolved());
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class TokenCount {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    private static CoolParser.ProgramContext parse(List<? extends Token> tokens) {
+        var parser = new CoolParser(new CommonTokenStream(new ListTokenSource(tokens)));
+        return Compiler.parse(parser, NO_ERRORS);
+    }
+
+    @Benchmark
+    public void lexer(Sources sources, TokenCount count, Blackhole blackhole) {
+        for (var text : sources.texts) {
+            text.seek(0);
+            var lexer = new CoolLexer(text);
+            lexer.removeErrorListeners();
+            for (var token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+                blackhole.consume(token);
+                count.tokens++;
+            }
+        }
+    }
+
+    @Benchmark
+    public void parser(Sources sources, Blackhole blackhole) {
+        for (var tokens : sources.tokens)
+            blackhole.consume(parse(tokens));
+    }
+
+    @Benchmark
+    public void astConstruction(Sources sources, Blackhole blackhole) {
+        for (var tree : sources.trees)
+            blackhole.consume(tree.accept(new ASTConstructionVisitor(0)));
+    }
+
+    @Benchmark
+    public void definitionPass(Undefined undefined) {
+        for (var program : undefined.programs)
+            program.defined();
+    }
+
+    @Benchmark
+    public void resolutionPass(Defined defined) {
+        for (var program : defined.programs)
+            program.resolved();
+    }
+
+    @Benchmark
+    public void codeGeneration(Resolved resolved, Blackhole blackhole) throws IOException {
+        for (var program : resolved.programs) {
+            var out = new StringWriter();
+            var emitter = new CodeEmitter(out);
+            program.ast.accept(new CodeGenPassVisitor(program.context, emitter, false, resolved.optimize));
+            emitter.flush();
+            blackhole.consume(out.getBuffer().length());
+        }
+    }
+}
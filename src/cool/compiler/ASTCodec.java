@@ -0,0 +1,606 @@
+package cool.compiler;
+
+import cool.structures.MethodSymbol;
+import cool.structures.SymbolTable;
+import cool.structures.TypeSymbol;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of the classes of a file, as the resolution pass left
+ * them, for the incremental cache. Reading it back is several times faster
+ * than parsing the file again, which Java serialization is not.
+ *
+ * Nodes are written in preorder, each with its positions; expressions and
+ * features start with the kind of their node. Strings are written once and
+ * then referred to by their index. Symbols are written by name: the static
+ * type of each expression, and the class defining the method of each
+ * dispatch, to be bound to the symbols of a later compilation.
+ */
+class ASTCodec {
+    private ASTCodec() {
+    }
+
+    // Kinds of nodes, where more than one may appear.
+    private static final byte NONE = 0, ATTRIBUTE = 1, METHOD = 2, LITERAL = 3, ASSIGNMENT = 4,
+            VARIABLE = 5, BINARY_OP = 6, BOOL_NEG = 7, INT_NEG = 8, IS_VOID = 9, NEW = 10,
+            EXPL_DISPATCH = 11, IMPL_DISPATCH = 12, DECISION = 13, LOOP = 14, LET = 15,
+            CASE = 16, BLOCK = 17;
+
+    /**
+     * Classes read back, with the names of the symbols the resolution pass
+     * found for their nodes.
+     */
+    static class Decoded {
+        final List<ClassNode> classes = new ArrayList<>();
+        private final List<Expression> typed = new ArrayList<>();
+        private final List<String> typeNames = new ArrayList<>();
+        private final List<Expression> dispatches = new ArrayList<>();
+        private final List<String> methodClasses = new ArrayList<>();
+
+        /**
+         * Gives the nodes the symbols they had when written, once the
+         * definition pass is over, so that they need no resolution pass.
+         *
+         * @return false if one of the symbols is no longer defined.
+         */
+        boolean bind(SymbolTable symbolTable) {
+            for (int i = 0; i < typed.size(); i++) {
+                var type = (TypeSymbol) symbolTable.globals.lookup(typeNames.get(i));
+                if (type == null)
+                    return false;
+                typed.get(i).staticType = type;
+            }
+            for (int i = 0; i < dispatches.size(); i++) {
+                var owner = (TypeSymbol) symbolTable.globals.lookup(methodClasses.get(i));
+                var dispatch = dispatches.get(i);
+                var name = dispatch instanceof ExplDispatch
+                        ? ((ExplDispatch) dispatch).method : ((ImplDispatch) dispatch).method;
+                var method = owner == null ? null : (MethodSymbol) owner.methodsScope.lookupLocal(name);
+                if (method == null)
+                    return false;
+                if (dispatch instanceof ExplDispatch)
+                    ((ExplDispatch) dispatch).methodSymbol = method;
+                else
+                    ((ImplDispatch) dispatch).methodSymbol = method;
+            }
+            return true;
+        }
+    }
+
+    static byte[] write(List<ClassNode> classes) {
+        var writer = new Writer();
+        writer.room(4).putInt(classes.size());
+        for (var classNode : classes)
+            classNode.accept(writer);
+        return Arrays.copyOf(writer.out.array(), writer.out.position());
+    }
+
+    /**
+     * @return the classes, with their nodes in the given file, or null if
+     *         the bytes are not a whole AST.
+     */
+    static Decoded read(byte[] bytes, int file) {
+        var reader = new Reader(ByteBuffer.wrap(bytes), file);
+        try {
+            int count = reader.in.getInt();
+            for (int i = 0; i < count; i++)
+                reader.decoded.classes.add(reader.classNode());
+            return reader.in.hasRemaining() ? null : reader.decoded;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                 | ClassCastException e) {
+            return null;
+        }
+    }
+
+    private static class Writer implements ASTVisitor<Void> {
+        ByteBuffer out = ByteBuffer.allocate(4096);
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        ByteBuffer room(int bytes) {
+            if (out.remaining() < bytes) {
+                var larger = ByteBuffer.allocate(Math.max(2 * out.capacity(), out.position() + bytes));
+                out = larger.put(out.flip());
+            }
+            return out;
+        }
+
+        private void node(ASTNode node) {
+            room(16).putLong(node.start).putLong(node.outerStart);
+        }
+
+        private void kind(byte kind) {
+            room(1).put(kind);
+        }
+
+        // The kind and positions of an expression, and the name of its type.
+        private void expression(Expression expr, byte kind) {
+            kind(kind);
+            node(expr);
+            symbol(expr.staticType);
+        }
+
+        private void symbol(TypeSymbol symbol) {
+            string(symbol == null ? null : symbol.getName());
+        }
+
+        private void number(long value) {
+            room(8).putLong(value);
+        }
+
+        // The index of a string seen before, or the next index followed by
+        // the string; -1 for null.
+        private void string(String string) {
+            if (string == null) {
+                room(4).putInt(-1);
+                return;
+            }
+            var index = strings.get(string);
+            if (index != null) {
+                room(4).putInt(index);
+                return;
+            }
+            strings.put(string, strings.size());
+            var utf8 = string.getBytes(StandardCharsets.UTF_8);
+            room(8 + utf8.length).putInt(strings.size() - 1).putInt(utf8.length).put(utf8);
+        }
+
+        private void expressions(List<Expression> expressions) {
+            number(expressions.size());
+            for (var expr : expressions)
+                expr.accept(this);
+        }
+
+        private void optional(Expression expr) {
+            if (expr == null)
+                kind(NONE);
+            else
+                expr.accept(this);
+        }
+
+        @Override
+        public Void visit(Program program) {
+            return null;
+        }
+
+        @Override
+        public Void visit(ClassNode classNode) {
+            node(classNode);
+            string(classNode.id);
+            string(classNode.parent);
+            number(classNode.typePosition);
+            number(classNode.parentPosition);
+            number(classNode.features.size());
+            for (var feature : classNode.features)
+                feature.accept(this);
+            return null;
+        }
+
+        private void feature(Feature feature, byte kind) {
+            kind(kind);
+            node(feature);
+            string(feature.name);
+            string(feature.type);
+            number(feature.namePosition);
+            number(feature.typePosition);
+        }
+
+        @Override
+        public Void visit(Attribute attribute) {
+            feature(attribute, ATTRIBUTE);
+            optional(attribute.init);
+            return null;
+        }
+
+        @Override
+        public Void visit(Method method) {
+            feature(method, METHOD);
+            number(method.formals.size());
+            for (var formal : method.formals)
+                formal.accept(this);
+            method.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Formal formal) {
+            node(formal);
+            string(formal.name);
+            string(formal.type);
+            number(formal.namePosition);
+            number(formal.typePosition);
+            return null;
+        }
+
+        @Override
+        public Void visit(Literal literal) {
+            expression(literal, LITERAL);
+            string(literal.val);
+            number(literal.type.ordinal());
+            return null;
+        }
+
+        @Override
+        public Void visit(Assignment assignment) {
+            expression(assignment, ASSIGNMENT);
+            assignment.var.accept(this);
+            assignment.expr.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Variable variable) {
+            expression(variable, VARIABLE);
+            string(variable.name);
+            return null;
+        }
+
+        @Override
+        public Void visit(BinaryOp binaryOp) {
+            expression(binaryOp, BINARY_OP);
+            string(binaryOp.op);
+            number(binaryOp.opPosition);
+            binaryOp.operand1.accept(this);
+            binaryOp.operand2.accept(this);
+            return null;
+        }
+
+        private void unaryOp(UnaryOp unaryOp, byte kind) {
+            expression(unaryOp, kind);
+            string(unaryOp.op);
+            unaryOp.operand.accept(this);
+        }
+
+        @Override
+        public Void visit(BoolNeg boolNeg) {
+            unaryOp(boolNeg, BOOL_NEG);
+            return null;
+        }
+
+        @Override
+        public Void visit(IntNeg intNeg) {
+            unaryOp(intNeg, INT_NEG);
+            return null;
+        }
+
+        @Override
+        public Void visit(isVoid isVoid) {
+            unaryOp(isVoid, IS_VOID);
+            return null;
+        }
+
+        @Override
+        public Void visit(NewOp newOp) {
+            expression(newOp, NEW);
+            string(newOp.type);
+            number(newOp.typePosition);
+            return null;
+        }
+
+        @Override
+        public Void visit(ExplDispatch explDispatch) {
+            expression(explDispatch, EXPL_DISPATCH);
+            symbol(explDispatch.methodSymbol == null ? null : explDispatch.methodSymbol.getDefiningClass());
+            string(explDispatch.method);
+            string(explDispatch.static_method);
+            number(explDispatch.namePosition);
+            number(explDispatch.staticMethodPosition);
+            explDispatch.object.accept(this);
+            expressions(explDispatch.params);
+            return null;
+        }
+
+        @Override
+        public Void visit(ImplDispatch implDispatch) {
+            expression(implDispatch, IMPL_DISPATCH);
+            symbol(implDispatch.methodSymbol == null ? null : implDispatch.methodSymbol.getDefiningClass());
+            string(implDispatch.method);
+            number(implDispatch.namePosition);
+            expressions(implDispatch.params);
+            return null;
+        }
+
+        @Override
+        public Void visit(Decision decision) {
+            expression(decision, DECISION);
+            decision.cond.accept(this);
+            decision.thenExpr.accept(this);
+            decision.elseExpr.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Loop loop) {
+            expression(loop, LOOP);
+            loop.cond.accept(this);
+            loop.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Let let) {
+            expression(let, LET);
+            number(let.locals.size());
+            for (var local : let.locals)
+                local.accept(this);
+            let.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Local local) {
+            node(local);
+            string(local.name);
+            string(local.type);
+            number(local.namePosition);
+            number(local.typePosition);
+            optional(local.init);
+            return null;
+        }
+
+        @Override
+        public Void visit(Case caseNode) {
+            expression(caseNode, CASE);
+            caseNode.expr.accept(this);
+            number(caseNode.branches.size());
+            for (var branch : caseNode.branches)
+                branch.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(CaseBranch caseBranch) {
+            node(caseBranch);
+            string(caseBranch.name);
+            string(caseBranch.type);
+            number(caseBranch.namePosition);
+            number(caseBranch.typePosition);
+            caseBranch.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Block block) {
+            expression(block, BLOCK);
+            expressions(block.expressions);
+            return null;
+        }
+    }
+
+    // Reads the nodes back in the order the writer visits them.
+    private static class Reader {
+        final ByteBuffer in;
+        private final int file;
+        private final List<String> strings = new ArrayList<>();
+        final Decoded decoded = new Decoded();
+
+        Reader(ByteBuffer in, int file) {
+            this.in = in;
+            this.file = file;
+        }
+
+        private <T extends ASTNode> T node(T node) {
+            node.file = file;
+            node.start = in.getLong();
+            node.outerStart = in.getLong();
+            return node;
+        }
+
+        // An expression, with the name of its type, if it had one.
+        private <T extends Expression> T expression(T expr) {
+            node(expr);
+            var typeName = string();
+            if (typeName != null) {
+                decoded.typed.add(expr);
+                decoded.typeNames.add(typeName);
+            }
+            return expr;
+        }
+
+        // A dispatch, with the class defining its method, if it had one.
+        private <T extends Expression> T dispatch(T dispatch) {
+            expression(dispatch);
+            var className = string();
+            if (className != null) {
+                decoded.dispatches.add(dispatch);
+                decoded.methodClasses.add(className);
+            }
+            return dispatch;
+        }
+
+        private int count() {
+            long count = in.getLong();
+            if (count < 0 || count > in.remaining())
+                throw new IllegalArgumentException("bad count " + count);
+            return (int) count;
+        }
+
+        private String string() {
+            int index = in.getInt();
+            if (index < 0)
+                return null;
+            if (index < strings.size())
+                return strings.get(index);
+            if (index != strings.size())
+                throw new IllegalArgumentException("bad string index " + index);
+            var utf8 = new byte[in.getInt()];
+            in.get(utf8);
+            var string = new String(utf8, StandardCharsets.UTF_8);
+            strings.add(string);
+            return string;
+        }
+
+        ClassNode classNode() {
+            var classNode = node(new ClassNode());
+            classNode.id = string();
+            classNode.parent = string();
+            classNode.typePosition = in.getLong();
+            classNode.parentPosition = in.getLong();
+            for (int i = count(); i > 0; i--)
+                classNode.features.add(feature());
+            return classNode;
+        }
+
+        private Feature feature() {
+            byte kind = in.get();
+            Feature feature;
+            if (kind == ATTRIBUTE)
+                feature = new Attribute();
+            else if (kind == METHOD)
+                feature = new Method();
+            else
+                throw new IllegalArgumentException("bad feature " + kind);
+            node(feature);
+            feature.name = string();
+            feature.type = string();
+            feature.namePosition = in.getLong();
+            feature.typePosition = in.getLong();
+
+            if (feature instanceof Attribute) {
+                ((Attribute) feature).init = expression();
+            } else {
+                var method = (Method) feature;
+                for (int i = count(); i > 0; i--) {
+                    var formal = node(new Formal());
+                    formal.name = string();
+                    formal.type = string();
+                    formal.namePosition = in.getLong();
+                    formal.typePosition = in.getLong();
+                    method.formals.add(formal);
+                }
+                method.body = expression();
+            }
+            return feature;
+        }
+
+        private <T extends UnaryOp> T unaryOp(T unaryOp) {
+            expression(unaryOp);
+            unaryOp.op = string();
+            unaryOp.operand = expression();
+            return unaryOp;
+        }
+
+        private void expressions(List<Expression> expressions) {
+            for (int i = count(); i > 0; i--)
+                expressions.add(expression());
+        }
+
+        // Null where the writer found no expression.
+        private Expression expression() {
+            byte kind = in.get();
+            switch (kind) {
+                case NONE:
+                    return null;
+                case LITERAL: {
+                    var literal = expression(new Literal());
+                    literal.val = string();
+                    literal.type = Literal.LiteralType.values()[(int) in.getLong()];
+                    return literal;
+                }
+                case ASSIGNMENT: {
+                    var assignment = expression(new Assignment());
+                    assignment.var = (Variable) expression();
+                    assignment.expr = expression();
+                    return assignment;
+                }
+                case VARIABLE: {
+                    var variable = expression(new Variable());
+                    variable.name = string();
+                    return variable;
+                }
+                case BINARY_OP: {
+                    var binaryOp = expression(new BinaryOp());
+                    binaryOp.op = string();
+                    binaryOp.opPosition = in.getLong();
+                    binaryOp.operand1 = expression();
+                    binaryOp.operand2 = expression();
+                    return binaryOp;
+                }
+                case BOOL_NEG:
+                    return unaryOp(new BoolNeg());
+                case INT_NEG:
+                    return unaryOp(new IntNeg());
+                case IS_VOID:
+                    return unaryOp(new isVoid());
+                case NEW: {
+                    var newOp = expression(new NewOp());
+                    newOp.type = string();
+                    newOp.typePosition = in.getLong();
+                    return newOp;
+                }
+                case EXPL_DISPATCH: {
+                    var explDispatch = dispatch(new ExplDispatch());
+                    explDispatch.method = string();
+                    explDispatch.static_method = string();
+                    explDispatch.namePosition = in.getLong();
+                    explDispatch.staticMethodPosition = in.getLong();
+                    explDispatch.object = expression();
+                    expressions(explDispatch.params);
+                    return explDispatch;
+                }
+                case IMPL_DISPATCH: {
+                    var implDispatch = dispatch(new ImplDispatch());
+                    implDispatch.method = string();
+                    implDispatch.namePosition = in.getLong();
+                    expressions(implDispatch.params);
+                    return implDispatch;
+                }
+                case DECISION: {
+                    var decision = expression(new Decision());
+                    decision.cond = expression();
+                    decision.thenExpr = expression();
+                    decision.elseExpr = expression();
+                    return decision;
+                }
+                case LOOP: {
+                    var loop = expression(new Loop());
+                    loop.cond = expression();
+                    loop.body = expression();
+                    return loop;
+                }
+                case LET: {
+                    var let = expression(new Let());
+                    for (int i = count(); i > 0; i--) {
+                        var local = node(new Local());
+                        local.name = string();
+                        local.type = string();
+                        local.namePosition = in.getLong();
+                        local.typePosition = in.getLong();
+                        local.init = expression();
+                        let.locals.add(local);
+                    }
+                    let.body = expression();
+                    return let;
+                }
+                case CASE: {
+                    var caseNode = expression(new Case());
+                    caseNode.expr = expression();
+                    for (int i = count(); i > 0; i--) {
+                        var branch = node(new CaseBranch());
+                        branch.name = string();
+                        branch.type = string();
+                        branch.namePosition = in.getLong();
+                        branch.typePosition = in.getLong();
+                        branch.body = expression();
+                        caseNode.branches.add(branch);
+                    }
+                    return caseNode;
+                }
+                case BLOCK: {
+                    var block = expression(new Block());
+                    expressions(block.expressions);
+                    return block;
+                }
+                default:
+                    throw new IllegalArgumentException("bad expression " + kind);
+            }
+        }
+    }
+}
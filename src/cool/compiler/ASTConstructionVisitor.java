@@ -2,24 +2,56 @@ package cool.compiler;
 
 import cool.parser.CoolParser;
 import cool.parser.CoolParserBaseVisitor;
+import cool.structures.Position;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
+    // Index of the file being built, given to all its nodes.
+    private final int file;
+
+    // AST nodes built so far, below the program node, for --stats.
+    private int nodeCount;
+
+    public ASTConstructionVisitor(int file) {
+        this.file = file;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public ASTNode visit(ParseTree tree) {
+        var node = super.visit(tree);
+        var start = Position.of(((ParserRuleContext) tree).getStart());
+        // Parentheses build no node of their own; the node inside keeps its
+        // own start, and the outermost parenthesis is its outer start.
+        if (!(tree instanceof CoolParser.Paren_exprContext)) {
+            nodeCount++;
+            node.start = start;
+        }
+        node.outerStart = start;
+        node.file = file;
+        return node;
+    }
+
     @Override
     public ASTNode visitClass(CoolParser.ClassContext ctx) {
         var classNode = new ClassNode();
-        classNode.ctx = ctx;
         classNode.id = ctx.type.getText();
+        classNode.typePosition = Position.of(ctx.type);
         for (var feat : ctx.feats) {
             Feature feature = (Feature) visit(feat);
             classNode.features.add(feature);
         }
         if (ctx.parent != null) {
             classNode.parent = ctx.parent.getText();
+            classNode.parentPosition = Position.of(ctx.parent);
         }
         return classNode;
     }
@@ -27,9 +59,10 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     @Override
     public ASTNode visitMethod(CoolParser.MethodContext ctx) {
         var method = new Method();
-        method.ctx = ctx;
         method.name = ctx.name.getText();
         method.type = ctx.type.getText();
+        method.namePosition = Position.of(ctx.name);
+        method.typePosition = Position.of(ctx.type);
         method.body = (Expression) visit(ctx.body);
         for (var arg : ctx.args) {
             method.formals.add((Formal) visit(arg));
@@ -40,9 +73,10 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     @Override
     public ASTNode visitClass_var(CoolParser.Class_varContext ctx) {
         var attribute = new Attribute();
-        attribute.ctx = ctx;
         attribute.name = ctx.var_decl().name.getText();
         attribute.type = ctx.var_decl().type.getText();
+        attribute.namePosition = Position.of(ctx.var_decl().name);
+        attribute.typePosition = Position.of(ctx.var_decl().type);
         if (ctx.var_decl().init != null) {
             attribute.init = (Expression) visit(ctx.var_decl().init);
         }
@@ -52,17 +86,18 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     @Override
     public ASTNode visitFormal(CoolParser.FormalContext ctx) {
         var formal = new Formal();
-        formal.ctx = ctx;
         formal.name = ctx.name.getText();
         formal.type = ctx.type.getText();
+        formal.namePosition = Position.of(ctx.name);
+        formal.typePosition = Position.of(ctx.type);
         return formal;
     }
 
     @Override
     public ASTNode visitNew(CoolParser.NewContext ctx) {
         var newOperation = new NewOp();
-        newOperation.ctx = ctx;
         newOperation.type = ctx.type.getText();
+        newOperation.typePosition = Position.of(ctx.type);
         return newOperation;
     }
 
@@ -70,7 +105,6 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     public ASTNode visitCompl(CoolParser.ComplContext ctx) {
         var unary = new IntNeg();
         unary.op = "~";
-        unary.ctx = ctx;
         unary.operand = (Expression) visit(ctx.expr());
         return unary;
     }
@@ -79,7 +113,6 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     public ASTNode visitNot(CoolParser.NotContext ctx) {
         var unary = new BoolNeg();
         unary.op = "not";
-        unary.ctx = ctx;
         unary.operand = (Expression) visit(ctx.expr());
         return unary;
     }
@@ -88,7 +121,6 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     public ASTNode visitIsvoid(CoolParser.IsvoidContext ctx) {
         var unary = new isVoid();
         unary.op = "isvoid";
-        unary.ctx = ctx;
         unary.operand = (Expression) visit(ctx.expr());
         return unary;
     }
@@ -97,10 +129,7 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     public ASTNode visitMultDiv(CoolParser.MultDivContext ctx) {
         var binary = new BinaryOp();
         binary.op = ctx.op.getText();
-        binary.ctx = ctx;
-        binary.opToken = ctx.op;
-        binary.leftToken = ctx.left.start;
-        binary.rightToken = ctx.right.start;
+        binary.opPosition = Position.of(ctx.op);
         binary.operand1 = (Expression) visit(ctx.left);
         binary.operand2 = (Expression) visit(ctx.right);
         return binary;
@@ -110,10 +139,7 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     public ASTNode visitPlusMinus(CoolParser.PlusMinusContext ctx) {
         var binary = new BinaryOp();
         binary.op = ctx.op.getText();
-        binary.ctx = ctx;
-        binary.opToken = ctx.op;
-        binary.leftToken = ctx.left.start;
-        binary.rightToken = ctx.right.start;
+        binary.opPosition = Position.of(ctx.op);
         binary.operand1 = (Expression) visit(ctx.left);
         binary.operand2 = (Expression) visit(ctx.right);
         return binary;
@@ -123,10 +149,7 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     public ASTNode visitRelational(CoolParser.RelationalContext ctx) {
         var binary = new BinaryOp();
         binary.op = ctx.op.getText();
-        binary.ctx = ctx;
-        binary.opToken = ctx.op;
-        binary.leftToken = ctx.left.start;
-        binary.rightToken = ctx.right.start;
+        binary.opPosition = Position.of(ctx.op);
         binary.operand1 = (Expression) visit(ctx.left);
         binary.operand2 = (Expression) visit(ctx.right);
         return binary;
@@ -137,9 +160,9 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
         var assignment = new Assignment();
         var var = new Variable();
         var.name = ctx.name.getText();
-        var.ctx = ctx;
+        var.file = file;
+        var.start = var.outerStart = Position.of(ctx.name);
         assignment.var = var;
-        assignment.ctx = ctx;
         assignment.expr = (Expression) visit(ctx.expr());
         return assignment;
     }
@@ -148,12 +171,12 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     public ASTNode visitExpldispatch(CoolParser.ExpldispatchContext ctx) {
         var expldisp = new ExplDispatch();
         expldisp.method = ctx.name.getText();
-        expldisp.ctx = ctx;
+        expldisp.namePosition = Position.of(ctx.name);
         if (ctx.static_method != null) {
             expldisp.static_method = ctx.static_method.getText();
+            expldisp.staticMethodPosition = Position.of(ctx.static_method);
         }
         expldisp.object = (Expression) visit(ctx.object);
-        expldisp.paramtokens = ctx.params.stream().map((context) -> context.start).collect(Collectors.toList());
 
         for (var param : ctx.params) {
             expldisp.params.add((Expression) visit(param));
@@ -165,8 +188,7 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     public ASTNode visitImpldispatch(CoolParser.ImpldispatchContext ctx) {
         var impldisp = new ImplDispatch();
         impldisp.method = ctx.name.getText();
-        impldisp.ctx = ctx;
-        impldisp.paramtokens = ctx.params.stream().map((context) -> context.start).collect(Collectors.toList());
+        impldisp.namePosition = Position.of(ctx.name);
 
         for (var param : ctx.params) {
             impldisp.params.add((Expression) visit(param));
@@ -177,7 +199,6 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     @Override
     public ASTNode visitWhile(CoolParser.WhileContext ctx) {
         var loop = new Loop();
-        loop.ctx = ctx;
         loop.cond = (Expression) visit(ctx.cond);
         loop.body = (Expression) visit(ctx.body);
         return loop;
@@ -186,7 +207,6 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     @Override
     public ASTNode visitIf(CoolParser.IfContext ctx) {
         var decision = new Decision();
-        decision.ctx = ctx;
         decision.cond = (Expression) visit(ctx.cond);
         decision.thenExpr = (Expression) visit(ctx.thenBranch);
         decision.elseExpr = (Expression) visit(ctx.elseBranch);
@@ -196,7 +216,6 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     @Override
     public ASTNode visitCase(CoolParser.CaseContext ctx) {
         var caseNode = new Case();
-        caseNode.ctx = ctx;
         caseNode.expr = (Expression) visit(ctx.main);
         for (var branch : ctx.branches) {
             caseNode.branches.add((CaseBranch) visit(branch));
@@ -207,9 +226,10 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     @Override
     public ASTNode visitCase_branch(CoolParser.Case_branchContext ctx) {
         var caseBranch = new CaseBranch();
-        caseBranch.ctx = ctx;
         caseBranch.name = ctx.name.getText();
         caseBranch.type = ctx.type.getText();
+        caseBranch.namePosition = Position.of(ctx.name);
+        caseBranch.typePosition = Position.of(ctx.type);
         caseBranch.body = (Expression) visit(ctx.body);
         return caseBranch;
     }
@@ -217,12 +237,16 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     @Override
     public ASTNode visitLet(CoolParser.LetContext ctx) {
         var let = new Let();
-        let.ctx = ctx;
         let.body = (Expression) visit(ctx.body);
+        // The locals are built here, without visiting their declarations.
+        nodeCount += ctx.vars.size();
         for (var var : ctx.vars) {
             var local = new Local();
+            local.file = file;
             local.name = var.name.getText();
             local.type = var.type.getText();
+            local.namePosition = Position.of(var.name);
+            local.typePosition = Position.of(var.type);
             if (var.init != null) {
                 local.init = (Expression) visit(var.init);
             }
@@ -234,7 +258,6 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     @Override
     public ASTNode visitBlock(CoolParser.BlockContext ctx) {
         var block = new Block();
-        block.ctx = ctx;
         for (var expr : ctx.expressions) {
             block.expressions.add((Expression) visit(expr));
         }
@@ -249,7 +272,6 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     @Override
     public ASTNode visitVariable(CoolParser.VariableContext ctx) {
         var var = new Variable();
-        var.ctx = ctx;
         var.name = ctx.getText();
         return var;
     }
@@ -257,7 +279,6 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     @Override
     public ASTNode visitString(CoolParser.StringContext ctx) {
         var literal = new Literal();
-        literal.ctx = ctx;
         String str = ctx.getText().substring(1, ctx.getText().length() - 1);
 
         StringBuffer myStringBuffer = new StringBuffer();
@@ -287,7 +308,6 @@ public class ASTConstructionVisitor extends CoolParserBaseVisitor<ASTNode> {
     public ASTNode visitIntBool(CoolParser.IntBoolContext ctx) {
         var literal = new Literal();
         literal.val = ctx.getText();
-        literal.ctx = ctx;
         if (literal.val.equals("false") || literal.val.equals("true"))
             literal.type = Literal.LiteralType.BOOL;
         else
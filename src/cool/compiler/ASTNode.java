@@ -1,18 +1,24 @@
 package cool.compiler;
 
 import cool.parser.CoolParser;
+import cool.structures.IdSymbol;
+import cool.structures.MethodSymbol;
 import cool.structures.Scope;
 import cool.structures.TypeSymbol;
-import org.antlr.v4.runtime.ParserRuleContext;
-import org.antlr.v4.runtime.Token;
 
 import java.lang.reflect.Type;
 import java.util.ArrayList;
-import java.util.List;
 
 public abstract class ASTNode {
 
-    public ParserRuleContext ctx;
+    // Index of the source file of the node in CompilationContext.files.
+    public int file;
+
+    // Positions of the first token of the node, and of the first of the
+    // parentheses around it, if any. Positions are packed by Position, so
+    // that the parse tree need not be kept after the AST is built.
+    public long start;
+    public long outerStart;
 
     public abstract String serialize(int level);
 
@@ -48,6 +54,7 @@ class Program extends ASTNode {
 abstract class Feature extends ASTNode {
     public String name;
     public String type;
+    public long namePosition, typePosition;
 }
 class Method extends Feature {
     ArrayList<Formal> formals = new ArrayList<>();
@@ -74,6 +81,7 @@ class Formal extends ASTNode {
 
     public String name;
     public String type;
+    public long namePosition, typePosition;
 
     @Override
     public String serialize(int level) {
@@ -113,6 +121,7 @@ class ClassNode extends ASTNode {
     public String tag;
     String id;
     String parent;
+    long typePosition, parentPosition;
     ArrayList<Feature> features = new ArrayList<>();
 
     public TypeSymbol symbol;
@@ -133,7 +142,10 @@ class ClassNode extends ASTNode {
     }
 }
 
-abstract class Expression extends ASTNode{}
+abstract class Expression extends ASTNode{
+    // Set by the resolution pass; SELF_TYPE stays as is.
+    TypeSymbol staticType;
+}
 
 class Literal extends Expression {
 
@@ -165,6 +177,8 @@ class Assignment extends Expression {
 
 class Variable extends Expression {
     String name;
+    // The attribute, formal or local named here; null if undefined.
+    IdSymbol symbol;
     @Override
     public String serialize(int level) {
         return indentedLine(level, name);
@@ -178,9 +192,7 @@ class Variable extends Expression {
 class  BinaryOp extends Expression {
     public String op;
     public Expression operand1, operand2;
-    public Token opToken;
-    public Token leftToken;
-    public Token rightToken;
+    public long opPosition;
     @Override
     public String serialize(int level) {
         return indentedLine(level,op) + operand1.serialize(level + 1) + operand2.serialize(level + 1);
@@ -211,6 +223,7 @@ class isVoid extends UnaryOp {
 class NewOp extends Expression
 {
     String type;
+    long typePosition;
     @Override
     public String serialize(int level) {
         return indentedLine(level,"new " + type);
@@ -232,9 +245,11 @@ abstract class UnaryOp extends  Expression {
 class ExplDispatch extends Expression {
     public String method;
     public String static_method;
+    long namePosition, staticMethodPosition;
     Expression object;
     ArrayList<Expression> params = new ArrayList<>();
-    List<Token> paramtokens;
+    // The method called, found by the resolution pass.
+    MethodSymbol methodSymbol;
 
     @Override
     public String serialize(int level) {
@@ -257,8 +272,10 @@ class ExplDispatch extends Expression {
 class ImplDispatch extends  Expression {
 
     String method;
+    long namePosition;
     ArrayList<Expression> params = new ArrayList<>();
-    List<Token> paramtokens;
+    // The method called, found by the resolution pass.
+    MethodSymbol methodSymbol;
 
 
     @Override
@@ -315,7 +332,6 @@ class Let extends Expression {
     ArrayList<Local> locals = new ArrayList<>();
     Expression body;
 
-    Scope scope;
     @Override
     public String serialize(int level) {
         StringBuilder final_string = new StringBuilder().append(indentedLine(level,"let"));
@@ -334,7 +350,9 @@ class Let extends Expression {
 class Local extends ASTNode {
     String name;
     String type;
+    long namePosition, typePosition;
     Expression init;
+    IdSymbol symbol;
 
     @Override
     public String serialize(int level) {
@@ -375,9 +393,10 @@ class CaseBranch extends ASTNode {
 
     String name;
     String type;
+    long namePosition, typePosition;
     Expression body;
 
-    Scope scope;
+    IdSymbol symbol;
     @Override
     public String serialize(int level) {
         return indentedLine(level, "case branch")
@@ -0,0 +1,77 @@
+package cool.compiler;
+
+import org.stringtemplate.v4.AutoIndentWriter;
+import org.stringtemplate.v4.ST;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Writes the generated assembly as it is produced, instead of collecting the
+ * whole program in one template. Each piece is rendered straight into the
+ * underlying writer, switching between the data and text sections whenever
+ * the next piece belongs to the other one, so memory use does not grow with
+ * the size of the program.
+ *
+ * Write failures are rethrown as {@link UncheckedIOException}, since the
+ * visitors cannot throw checked exceptions.
+ */
+public class CodeEmitter implements Flushable {
+    enum Section { DATA, TEXT }
+
+    private final Writer out;
+    private final AutoIndentWriter templateWriter;
+
+    // Section of the last piece written, null before the first one.
+    private Section section;
+
+    public CodeEmitter(Writer out) {
+        this.out = out;
+        this.templateWriter = new AutoIndentWriter(out);
+    }
+
+    // Switches to the data section, unless already there.
+    public CodeEmitter data() {
+        return switchTo(Section.DATA, ".data");
+    }
+
+    // Switches to the text section, unless already there.
+    public CodeEmitter text() {
+        return switchTo(Section.TEXT, ".text");
+    }
+
+    private CodeEmitter switchTo(Section next, String directive) {
+        if (section != next) {
+            section = next;
+            emit(directive);
+        }
+        return this;
+    }
+
+    public CodeEmitter emit(ST template) {
+        try {
+            template.write(templateWriter);
+            out.write(System.lineSeparator());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    public CodeEmitter emit(String line) {
+        try {
+            out.write(line);
+            out.write(System.lineSeparator());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
@@ -1,45 +1,442 @@
 package cool.compiler;
 
+import cool.ir.ConstantFolding;
+import cool.ir.ControlFlowSimplification;
+import cool.ir.CopyPropagation;
+import cool.ir.DeadCodeElimination;
+import cool.ir.Devirtualization;
+import cool.ir.Function;
+import cool.ir.Inlining;
+import cool.ir.LinearScanAllocator;
+import cool.ir.PassManager;
+import cool.ir.SSA;
+import cool.structures.IdSymbol;
+import cool.structures.MethodSymbol;
+import cool.structures.TypeSymbol;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroupFile;
 
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates MIPS assembly for the standard Cool runtime (trap.handler).
+ *
+ * Method bodies and class initializers are lowered to typed intermediate
+ * code, optimized in SSA form by the pass manager, their temps are given
+ * registers by linear scan, and instructions are selected from the result.
+ * Without register allocation every temp lives in the frame instead.
+ *
+ * When optimizing, only the classes and methods the program can reach from
+ * Main.main get code and data. Classes are still tagged, and methods still
+ * laid out, as if all were there; the entries of the tables for the ones
+ * left out are 0. Dispatches that can only call one of the methods kept
+ * become direct calls, and small methods are inlined into their callers.
+ *
+ * Objects are laid out as tag, size in words, dispatch table, then the
+ * attributes, inherited ones first. Class tags are the DFS preorder numbers
+ * of the classes, so the tags of a class and of all its subclasses form a
+ * contiguous range, which is what case expressions test. Dispatch tables
+ * follow the slots laid out by the symbol table, so a dispatch loads the
+ * method at a fixed offset.
+ */
 public class CodeGenPassVisitor implements ASTVisitor<ST>{
 
-    static STGroupFile templates = new STGroupFile("cgen.stg");
-    static int tagCounter = 4;
+    static STGroupFile templates = new STGroupFile("cool/compiler/gen.stg");
+    private final CompilationContext context;
+    private final CodeEmitter emitter;
+    private final IRLoweringVisitor lowering;
+    // Null if everything is kept.
+    private ReachabilityVisitor reachability;
+    private final PassManager passes = new PassManager();
+    // The same passes without inlining, for the bodies to inline.
+    private final PassManager calleePasses = new PassManager();
+    private final LinearScanAllocator allocator;
+    private final MipsGenerator generator = new MipsGenerator(this);
+
+    // Classes that get code, in tag order; SELF_TYPE is not one of them.
+    private final List<TypeSymbol> classes = new ArrayList<>();
+    private final Map<TypeSymbol, Integer> tags = new HashMap<>();
+    // Greatest tag among a class and its subclasses.
+    private final Map<TypeSymbol, Integer> maxTags = new HashMap<>();
+
+    // Labels of the constants generated so far, by value.
+    private final Map<String, String> stringConstants = new HashMap<>();
+    private final Map<Integer, String> intConstants = new HashMap<>();
+    // Constants not yet written, emitted after the class that uses them.
+    private final List<ST> pendingConstants = new ArrayList<>();
+
+    // AST of the user classes and of their methods, for inlining.
+    private final Map<TypeSymbol, ClassNode> classNodes = new HashMap<>();
+    private final Map<MethodSymbol, Method> methods = new HashMap<>();
+
+    private int labelCounter;
+
+    // Name of the file of the current class, for runtime error messages.
+    private String currentFileName;
+
+    public CodeGenPassVisitor(CompilationContext context, CodeEmitter emitter, boolean spillAll,
+                              boolean optimize) {
+        this.context = context;
+        this.emitter = emitter;
+        if (optimize) {
+            reachability = new ReachabilityVisitor(context.symbolTable);
+            passes.add(new CopyPropagation())
+                    .add(new ConstantFolding(this::intConstant))
+                    .add(new Devirtualization(this::uniqueMethod))
+                    .add(new Inlining(this::methodBody, this::newLabel))
+                    .add(new DeadCodeElimination())
+                    .add(new ControlFlowSimplification());
+            calleePasses.add(new CopyPropagation())
+                    .add(new ConstantFolding(this::intConstant))
+                    .add(new Devirtualization(this::uniqueMethod))
+                    .add(new DeadCodeElimination())
+                    .add(new ControlFlowSimplification());
+        }
+        this.allocator = new LinearScanAllocator(spillAll);
+        this.lowering = new IRLoweringVisitor(this, context.symbolTable);
+    }
+
+    String newLabel() {
+        return "label" + labelCounter++;
+    }
+
+    private void assignTags() {
+        var symbolTable = context.symbolTable;
+        for (var classSymbol : symbolTable.hierarchy.getClasses()) {
+            if (classSymbol == symbolTable.selfType)
+                continue;
+            tags.put(classSymbol, classes.size());
+            maxTags.put(classSymbol, classes.size());
+            classes.add(classSymbol);
+        }
+
+        // Subclasses come after their superclass, so walking backwards
+        // completes each class before it reaches the parent.
+        for (int i = classes.size() - 1; i >= 0; i--) {
+            var classSymbol = classes.get(i);
+            var parent = symbolTable.hierarchy.getParent(classSymbol);
+            if (parent != null)
+                maxTags.put(parent, Math.max(maxTags.get(parent), maxTags.get(classSymbol)));
+        }
+    }
+
+    int tag(TypeSymbol classSymbol) {
+        return tags.get(classSymbol);
+    }
+
+    int maxTag(TypeSymbol classSymbol) {
+        return maxTags.get(classSymbol);
+    }
+
+    // Label of the name of the file of the current class.
+    String currentFileName() {
+        return currentFileName;
+    }
+
+    private String fileName(ClassNode classNode) {
+        return stringConstant(new File(context.files.get(classNode.file)).getName());
+    }
+
+    String intConstant(int value) {
+        var label = intConstants.get(value);
+        if (label == null) {
+            label = "int_const" + intConstants.size();
+            intConstants.put(value, label);
+            pendingConstants.add(templates.getInstanceOf("int_const")
+                    .add("label", label)
+                    .add("tag", tags.get(context.symbolTable.intType))
+                    .add("value", value));
+        }
+        return label;
+    }
+
+    String stringConstant(String value) {
+        var label = stringConstants.get(value);
+        if (label == null) {
+            label = "str_const" + stringConstants.size();
+            stringConstants.put(value, label);
+            var template = templates.getInstanceOf("str_const")
+                    .add("label", label)
+                    .add("tag", tags.get(context.symbolTable.stringType))
+                    .add("size", 4 + (value.length() + 4) / 4)
+                    .add("lengthConst", intConstant(value.length()));
+            addCharacters(template, value);
+            pendingConstants.add(template);
+        }
+        return label;
+    }
+
+    // Printable characters go in .ascii lines, the others are given as bytes.
+    private void addCharacters(ST template, String value) {
+        var ascii = new StringBuilder();
+        for (char c : value.toCharArray()) {
+            if (c >= ' ' && c <= '~' && c != '"' && c != '\\') {
+                ascii.append(c);
+                continue;
+            }
+            if (ascii.length() > 0) {
+                template.add("chars", ".ascii \"" + ascii + "\"");
+                ascii.setLength(0);
+            }
+            template.add("chars", ".byte " + (int) c);
+        }
+        if (ascii.length() > 0)
+            template.add("chars", ".ascii \"" + ascii + "\"");
+    }
+
+    private void emitPendingConstants() {
+        if (pendingConstants.isEmpty())
+            return;
+        emitter.data();
+        for (var constant : pendingConstants)
+            emitter.emit(constant);
+        pendingConstants.clear();
+    }
+
+    private ST word(Object value) {
+        return templates.getInstanceOf("word").add("value", value);
+    }
+
+    // Value of a variable of the given type before it is assigned.
+    private String defaultValue(TypeSymbol type) {
+        var symbolTable = context.symbolTable;
+        if (type == symbolTable.intType)
+            return intConstant(0);
+        if (type == symbolTable.stringType)
+            return stringConstant("");
+        if (type == symbolTable.boolType)
+            return "bool_const0";
+        return null;
+    }
+
+    private void emitClassData(TypeSymbol classSymbol) {
+        var symbolTable = context.symbolTable;
+        var prototypeTemplate = templates.getInstanceOf("class_protObj");
+        int size = 3;
+        if (classSymbol == symbolTable.intType || classSymbol == symbolTable.boolType) {
+            prototypeTemplate.add("attributes", word(0));
+            size++;
+        } else if (classSymbol == symbolTable.stringType) {
+            prototypeTemplate.add("attributes", word(intConstant(0)));
+            prototypeTemplate.add("attributes", word(0));
+            size += 2;
+        } else {
+            addAttributes(prototypeTemplate, classSymbol);
+            size += classSymbol.attributeCount;
+        }
+        prototypeTemplate.add("name", classSymbol.getName())
+                .add("tag", tags.get(classSymbol))
+                .add("size", size);
+
+        emitter.data();
+        emitter.emit(prototypeTemplate);
+        emitDispatchTable(classSymbol);
+    }
+
+    private void emitDispatchTable(TypeSymbol classSymbol) {
+        var dispatchTemplate = templates.getInstanceOf("class_dispTab")
+                .add("name", classSymbol.getName());
+        for (var methodSymbol : classSymbol.dispatchTable)
+            dispatchTemplate.add("methods", word(reaches(methodSymbol) ? methodLabel(methodSymbol) : 0));
+
+        emitter.data();
+        emitter.emit(dispatchTemplate);
+    }
+
+    // Initial values of the attributes, inherited ones first.
+    private void addAttributes(ST prototypeTemplate, TypeSymbol classSymbol) {
+        var ancestors = new ArrayDeque<TypeSymbol>();
+        for (var type = classSymbol; type != null; type = context.symbolTable.hierarchy.getParent(type))
+            ancestors.push(type);
+        for (var type : ancestors) {
+            for (var attribute : type.attributesScope.getSymbols()) {
+                var value = defaultValue(((IdSymbol) attribute).typeSymbol);
+                prototypeTemplate.add("attributes", word(value == null ? 0 : value));
+            }
+        }
+    }
+
+    private boolean keeps(TypeSymbol classSymbol) {
+        return reachability == null || reachability.keeps(classSymbol);
+    }
+
+    private boolean keepsDispatchTable(TypeSymbol classSymbol) {
+        return reachability == null || reachability.keepsDispatchTable(classSymbol);
+    }
+
+    private boolean reaches(MethodSymbol methodSymbol) {
+        // The methods of the basic classes are in the runtime.
+        return reachability == null || reachability.reaches(methodSymbol)
+                || basicClasses().contains(methodSymbol.getDefiningClass());
+    }
+
+    private List<TypeSymbol> basicClasses() {
+        var symbolTable = context.symbolTable;
+        return List.of(symbolTable.objectType, symbolTable.ioType,
+                symbolTable.intType, symbolTable.stringType, symbolTable.boolType);
+    }
+
+    private String methodLabel(MethodSymbol methodSymbol) {
+        return Devirtualization.label(methodSymbol);
+    }
+
+    // Class hierarchy analysis, over the classes the program creates.
+    private MethodSymbol uniqueMethod(TypeSymbol type, boolean exact, MethodSymbol dispatched) {
+        var hierarchy = context.symbolTable.hierarchy;
+        // Copies out of a case branch leave the receiver with the type of
+        // the case expression, which may not have the method yet.
+        if (!hierarchy.isSubClass(dispatched.getDefiningClass(), type)) {
+            type = dispatched.getDefiningClass();
+            exact = false;
+        }
+        MethodSymbol unique = null;
+        var candidates = exact ? List.of(type) : hierarchy.getSubClasses(type);
+        for (var classSymbol : candidates) {
+            if (!reachability.instantiates(classSymbol))
+                continue;
+            var methodSymbol = classSymbol.dispatchTable.get(dispatched.dispatchSlot);
+            if (unique != null && methodSymbol != unique)
+                return null;
+            unique = methodSymbol;
+        }
+        return unique != null && reaches(unique) ? unique : null;
+    }
+
+    // A new copy of the code of a user method, optimized but left in SSA
+    // form, with its runtime errors reported in its own file.
+    private Function methodBody(MethodSymbol methodSymbol) {
+        var method = methods.get(methodSymbol);
+        if (method == null)
+            return null;
+        var classNode = classNodes.get(methodSymbol.getDefiningClass());
+        var fileName = currentFileName;
+        currentFileName = fileName(classNode);
+        var body = lowering.lower(method, classNode.symbol);
+        currentFileName = fileName;
+        SSA.construct(body);
+        calleePasses.optimize(body);
+        return body;
+    }
+
+    private ST generate(Function function) {
+        passes.run(function);
+        return generator.generate(function, allocator.allocate(function));
+    }
 
     @Override
-    public ST visit(Method method) {
+    public ST visit(Program program) {
+        var symbolTable = context.symbolTable;
+        assignTags();
+        if (reachability != null)
+            program.accept(reachability);
+        for (var cl : program.classes) {
+            classNodes.putIfAbsent(cl.symbol, cl);
+            for (var feat : cl.features)
+                if (feat instanceof Method)
+                    methods.put((MethodSymbol) ((Method) feat).scope, (Method) feat);
+        }
+
+        emitter.data();
+        emitter.emit(templates.getInstanceOf("globals")
+                .add("intTag", tags.get(symbolTable.intType))
+                .add("stringTag", tags.get(symbolTable.stringType))
+                .add("boolTag", tags.get(symbolTable.boolType)));
+        for (int value = 0; value <= 1; value++)
+            emitter.emit(templates.getInstanceOf("bool_const")
+                    .add("label", "bool_const" + value)
+                    .add("tag", tags.get(symbolTable.boolType))
+                    .add("value", value));
+
+        var nameTab = templates.getInstanceOf("class_nameTab");
+        var objTab = templates.getInstanceOf("class_objTab");
+        for (var classSymbol : classes) {
+            if (!keeps(classSymbol)) {
+                nameTab.add("names", word(0));
+                objTab.add("entries", word(0));
+                objTab.add("entries", word(0));
+                continue;
+            }
+            nameTab.add("names", word(stringConstant(classSymbol.getName())));
+            objTab.add("entries", word(classSymbol.getName() + "_protObj"));
+            objTab.add("entries", word(classSymbol.getName() + "_init"));
+        }
+        emitter.emit(nameTab);
+        emitter.emit(objTab);
+
+        // The basic classes have no AST; their methods are in the runtime.
+        var basicClasses = basicClasses();
+        for (var classSymbol : basicClasses)
+            emitClassData(classSymbol);
+        emitPendingConstants();
+
+        emitter.text();
+        emitter.emit(templates.getInstanceOf("text_globals"));
+        for (var classSymbol : basicClasses)
+            emitter.emit(generate(lowering.lowerInit(classSymbol, List.of())));
+
+        for (var cl : program.classes) {
+            cl.accept(this);
+        }
+
+        // The heap begins after the last static object.
+        emitter.data();
+        emitter.emit(templates.getInstanceOf("heap_start"));
         return null;
     }
+
     @Override
-    public ST visit(Formal formal) {
+    public ST visit(ClassNode classNode) {
+        var classSymbol = classNode.symbol;
+        currentFileName = fileName(classNode);
+
+        // The data of a class is written as soon as the class is visited,
+        // followed by the code of its initializer and methods. A class that
+        // is never created has no prototype nor initializer, but a static
+        // dispatch may still read its dispatch table and call its methods.
+        if (keeps(classSymbol)) {
+            emitClassData(classSymbol);
+
+            var attributes = new ArrayList<Attribute>();
+            for (var feat : classNode.features) {
+                if (feat instanceof Attribute)
+                    attributes.add((Attribute) feat);
+            }
+            emitter.text();
+            emitter.emit(generate(lowering.lowerInit(classSymbol, attributes)));
+        } else if (keepsDispatchTable(classSymbol)) {
+            emitDispatchTable(classSymbol);
+        }
+
+        emitter.text();
+        for (var feat : classNode.features) {
+            if (feat instanceof Method && reaches((MethodSymbol) ((Method) feat).scope)) {
+                emitter.emit(generate(lowering.lower((Method) feat, classSymbol)));
+            }
+        }
+
+        emitPendingConstants();
         return null;
     }
 
+    // Features and expressions are lowered to intermediate code, not
+    // visited.
     @Override
     public ST visit(Attribute attribute) {
         return null;
     }
 
     @Override
-    public ST visit(ClassNode classNode) {
-        classNode.tag = "_" + classNode.id + "_tag";
-        templates.getInstanceOf("tag")
-                .add("tag", classNode.tag)
-                .add("counter", tagCounter);
-        var prototypeTemplate = templates.getInstanceOf("protObj");
-        String attributesString = "";
-        for(var feat : classNode.features) {
-            if (feat instanceof Attribute) {
-                attributesString = attributesString + feat.accept(this).toString();
-            }
-        }
-        prototypeTemplate.add("attributes", attributesString)
-                .add("tag", tagCounter)
-                .add("dispatchPtr", classNode.id + "_dispTab");
+    public ST visit(Method method) {
+        return null;
+    }
 
-        tagCounter++;
+    @Override
+    public ST visit(Formal formal) {
         return null;
     }
 
@@ -64,7 +461,7 @@ public class CodeGenPassVisitor implements ASTVisitor<ST>{
     }
 
     @Override
-    public ST visit(BoolNeg intNeg) {
+    public ST visit(BoolNeg boolNeg) {
         return null;
     }
 
@@ -98,11 +495,6 @@ public class CodeGenPassVisitor implements ASTVisitor<ST>{
         return null;
     }
 
-    @Override
-    public ST visit(Program program) {
-        return null;
-    }
-
     @Override
     public ST visit(Block block) {
         return null;
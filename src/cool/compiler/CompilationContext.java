@@ -0,0 +1,42 @@
+package cool.compiler;
+
+import cool.structures.Diagnostics;
+import cool.structures.SymbolTable;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mutable state of a single compilation, handed to each of the passes.
+ * Nothing in it is shared, so separate compilations may run concurrently
+ * in the same process.
+ */
+public class CompilationContext {
+    // Names of the source files, by the index that AST nodes keep.
+    public final List<String> files = new ArrayList<>();
+
+    public final SymbolTable symbolTable;
+
+    // Destination of all diagnostics of this compilation.
+    public final PrintStream err;
+
+    // Diagnostics not printed yet.
+    public final Diagnostics diagnostics;
+
+    public CompilationContext(PrintStream err) {
+        this(err, false);
+    }
+
+    // Diagnostics are printed as JSON instead of text if jsonDiagnostics.
+    public CompilationContext(PrintStream err, boolean jsonDiagnostics) {
+        this(err, jsonDiagnostics, false);
+    }
+
+    // Scope lookups are counted, for --stats, only if countLookups.
+    public CompilationContext(PrintStream err, boolean jsonDiagnostics, boolean countLookups) {
+        this.err = err;
+        this.diagnostics = new Diagnostics(err, jsonDiagnostics);
+        this.symbolTable = new SymbolTable(files, diagnostics, countLookups);
+    }
+}
@@ -0,0 +1,137 @@
+package cool.compiler;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Time and memory spent by each phase of a compilation, and by the lexing
+ * and parsing of each file, printed with --stats as a table or as JSON.
+ *
+ * CPU time and allocated bytes are those of the thread that ran the work,
+ * as reported by the JVM's ThreadMXBean; they are -1 where the JVM does not
+ * support them. Files parsed and classes checked in parallel are measured
+ * on their own worker threads, and their phases add them up.
+ */
+public class CompilationStats {
+    private static final java.lang.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    // Resources used so far by the current thread.
+    public static class Sample {
+        final long wallNanos = System.nanoTime();
+        final long cpuNanos = THREADS.isCurrentThreadCpuTimeSupported()
+                ? THREADS.getCurrentThreadCpuTime() : -1;
+        final long allocatedBytes = allocatedBytes();
+
+        private static long allocatedBytes() {
+            if (!(THREADS instanceof com.sun.management.ThreadMXBean))
+                return -1;
+            var threads = (com.sun.management.ThreadMXBean) THREADS;
+            return threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()
+                    ? threads.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+        }
+    }
+
+    // What a phase or file took, and counts of what it went through.
+    public static class Measure {
+        final String name;
+        long wallNanos, cpuNanos, allocatedBytes;
+        final Map<String, Long> counts = new LinkedHashMap<>();
+
+        // Resources used by the current thread since the sample.
+        Measure(String name, Sample since) {
+            var now = new Sample();
+            this.name = name;
+            wallNanos = now.wallNanos - since.wallNanos;
+            cpuNanos = since.cpuNanos < 0 ? -1 : now.cpuNanos - since.cpuNanos;
+            allocatedBytes = since.allocatedBytes < 0 ? -1 : now.allocatedBytes - since.allocatedBytes;
+        }
+
+        public Measure count(String what, long count) {
+            counts.put(what, count);
+            return this;
+        }
+
+        // Counts the CPU time and allocations of the given measures instead,
+        // for work done by other threads.
+        Measure resourcesOf(List<Measure> measures) {
+            cpuNanos = allocatedBytes = 0;
+            for (var measure : measures) {
+                cpuNanos = cpuNanos < 0 || measure.cpuNanos < 0 ? -1 : cpuNanos + measure.cpuNanos;
+                allocatedBytes = allocatedBytes < 0 || measure.allocatedBytes < 0
+                        ? -1 : allocatedBytes + measure.allocatedBytes;
+            }
+            return this;
+        }
+    }
+
+    private final List<Measure> phases = new ArrayList<>();
+    private final List<Measure> files = new ArrayList<>();
+
+    public Measure phase(String name, Sample since) {
+        var measure = new Measure(name, since);
+        phases.add(measure);
+        return measure;
+    }
+
+    public void file(Measure measure) {
+        files.add(measure);
+    }
+
+    public void printText(PrintStream out) {
+        printTable(out, "phase", phases);
+        printTable(out, "file", files);
+    }
+
+    private static void printTable(PrintStream out, String title, List<Measure> measures) {
+        out.printf("%-24s %10s %10s %12s %s%n", title, "wall ms", "cpu ms", "alloc KB", "counts");
+        for (var measure : measures) {
+            var counts = new StringBuilder();
+            measure.counts.forEach((what, count) -> counts.append(" ").append(what).append("=").append(count));
+            out.printf("%-24s %10.2f %10s %12s%s%n", measure.name, measure.wallNanos / 1e6,
+                    measure.cpuNanos < 0 ? "-" : String.format("%.2f", measure.cpuNanos / 1e6),
+                    measure.allocatedBytes < 0 ? "-" : String.valueOf(measure.allocatedBytes / 1024),
+                    counts);
+        }
+    }
+
+    public void printJson(PrintStream out) {
+        var json = new StringBuilder("{\"phases\":");
+        appendJson(json, phases);
+        json.append(",\"files\":");
+        appendJson(json, files);
+        out.println(json.append("}"));
+    }
+
+    private static void appendJson(StringBuilder json, List<Measure> measures) {
+        json.append("[");
+        for (int i = 0; i < measures.size(); i++) {
+            var measure = measures.get(i);
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"name\":\"").append(escape(measure.name))
+                    .append("\",\"wallNanos\":").append(measure.wallNanos)
+                    .append(",\"cpuNanos\":").append(measure.cpuNanos)
+                    .append(",\"allocatedBytes\":").append(measure.allocatedBytes);
+            measure.counts.forEach((what, count) ->
+                    json.append(",\"").append(what).append("\":").append(count));
+            json.append("}");
+        }
+        json.append("]");
+    }
+
+    private static String escape(String string) {
+        var escaped = new StringBuilder();
+        for (char c : string.toCharArray()) {
+            if (c == '"' || c == '\\')
+                escaped.append('\\').append(c);
+            else if (c < ' ')
+                escaped.append(String.format("\\u%04x", (int) c));
+            else
+                escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
@@ -1,141 +1,474 @@
 package cool.compiler;
 
 import org.antlr.v4.runtime.*;
-import org.antlr.v4.runtime.tree.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
 
 import cool.lexer.*;
 import cool.parser.*;
-import cool.structures.SymbolTable;
+import cool.structures.Diagnostic;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class Compiler {
-    // Annotates class nodes with the names of files where they are defined.
-    public static ParseTreeProperty<String> fileNames = new ParseTreeProperty<>();
+    // Printed on both output streams after each request served in daemon mode.
+    public static final String DAEMON_END_OF_REQUEST = "\u0004";
 
     public static void main(String[] args) throws IOException {
-        if (args.length == 0) {
-            System.err.println("No file(s) given");
+        if (args.length == 1 && args[0].equals("--daemon")) {
+            serve(new BufferedReader(new InputStreamReader(System.in)));
             return;
         }
-        
-        CoolLexer lexer = null;
-        CommonTokenStream tokenStream = null;
-        CoolParser parser = null;
-        ParserRuleContext globalTree = null;
-        
+
+        compile(args, System.err);
+    }
+
+    /**
+     * Runs as a long-lived compiler process. Each line read from {@code in} is
+     * one compile request, made of the same arguments as a regular invocation.
+     * The output of a request is identical to that of a one-shot run, and is
+     * followed by a line holding {@link #DAEMON_END_OF_REQUEST}, on both
+     * output streams.
+     *
+     * The ATN simulators of the lexer and parser share their DFA caches
+     * statically, so these stay warm from one request to the next.
+     */
+    public static void serve(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty())
+                continue;
+
+            try {
+                compile(line.split("\\s+"), System.err);
+            } catch (Exception e) {
+                // Same report as the default handler of an uncaught exception.
+                System.err.print("Exception in thread \"main\" ");
+                e.printStackTrace();
+            }
+
+            System.out.println(DAEMON_END_OF_REQUEST);
+            System.out.flush();
+            System.err.println(DAEMON_END_OF_REQUEST);
+            System.err.flush();
+        }
+    }
+
+    /**
+     * Compiles the files given in {@code args}, printing diagnostics to
+     * {@code err}. All the state of the compilation is local to the call.
+     */
+    public static void compile(String[] args, PrintStream err) throws IOException {
+        var fileNamesList = new ArrayList<String>();
+        // Parse the input files on a worker pool instead of one after another,
+        // and type check their classes in parallel.
+        boolean parallelFrontEnd = false;
+        // Lex the input files from memory-mapped bytes instead of decoding
+        // them into code points first.
+        boolean mappedInput = false;
+        // Reuse the analysis of unchanged files, cached in this directory.
+        String cacheDirectory = null;
+        // Destination of the generated assembly; standard output if not set.
+        String outputFile = null;
+        // Keep every temp in the frame instead of allocating registers.
+        boolean spillAll = false;
+        // Generate the intermediate code as it is lowered, without running
+        // the optimization passes on it.
+        boolean optimize = true;
+        // Report the time and memory taken by each phase, as a table or as
+        // JSON, after the diagnostics.
+        CompilationStats stats = null;
+        boolean statsJson = false;
+        // Print the diagnostics as JSON, one object per line.
+        boolean jsonDiagnostics = false;
+        for (var arg : args) {
+            if (arg.equals("--parallel"))
+                parallelFrontEnd = true;
+            else if (arg.equals("--mmap"))
+                mappedInput = true;
+            else if (arg.equals("--incremental"))
+                cacheDirectory = IncrementalCache.DEFAULT_DIRECTORY;
+            else if (arg.startsWith("--incremental="))
+                cacheDirectory = arg.substring("--incremental=".length());
+            else if (arg.startsWith("--output="))
+                outputFile = arg.substring("--output=".length());
+            else if (arg.equals("--no-regalloc"))
+                spillAll = true;
+            else if (arg.equals("--no-opt"))
+                optimize = false;
+            else if (arg.equals("--stats") || arg.equals("--stats=json")) {
+                stats = new CompilationStats();
+                statsJson = arg.endsWith("=json");
+            } else if (arg.equals("--diagnostics=json"))
+                jsonDiagnostics = true;
+            else if (arg.equals("--diagnostics=text"))
+                jsonDiagnostics = false;
+            else
+                fileNamesList.add(arg);
+        }
+
+        if (fileNamesList.isEmpty()) {
+            err.println("No file(s) given");
+            return;
+        }
+
+        compile(fileNamesList, parallelFrontEnd, mappedInput, cacheDirectory, outputFile, spillAll, optimize,
+                stats, jsonDiagnostics, err);
+
+        // Also when compilation halted, for the phases that did run.
+        if (stats != null) {
+            if (statsJson)
+                stats.printJson(err);
+            else
+                stats.printText(err);
+        }
+    }
+
+    // Phases are measured into stats, unless it is null.
+    private static void compile(List<String> fileNamesList, boolean parallelFrontEnd, boolean mappedInput,
+                                String cacheDirectory, String outputFile, boolean spillAll,
+                                boolean optimize, CompilationStats stats, boolean jsonDiagnostics,
+                                PrintStream err)
+            throws IOException {
+        var context = new CompilationContext(err, jsonDiagnostics, stats != null);
+        try {
+            compile(context, fileNamesList, parallelFrontEnd, mappedInput, cacheDirectory, outputFile, spillAll,
+                    optimize, stats);
+        } finally {
+            // Whatever was found before a crash is still printed.
+            context.diagnostics.flush();
+        }
+    }
+
+    private static void compile(CompilationContext context, List<String> fileNamesList,
+                                boolean parallelFrontEnd, boolean mappedInput, String cacheDirectory,
+                                String outputFile, boolean spillAll, boolean optimize, CompilationStats stats)
+            throws IOException {
+        var err = context.err;
+
         // True if any lexical or syntax errors occur.
         boolean lexicalSyntaxErrors = false;
         
-        // Parse each input file and build one big parse tree out of
-        // individual parse trees.
-        for (var fileName : args) {
-            var input = CharStreams.fromFileName(fileName);
-            
-            // Lexer
-            if (lexer == null)
-                lexer = new CoolLexer(input);
-            else
-                lexer.setInputStream(input);
+        var start = new CompilationStats.Sample();
+        IncrementalCache cache = null;
+        List<ParsedFile> parsedFiles;
+        if (cacheDirectory == null) {
+            parsedFiles = parseFiles(fileNamesList, parallelFrontEnd, mappedInput);
+        } else {
+            // Cached files are only parsed if something they depend on has
+            // changed since they were analyzed.
+            cache = new IncrementalCache(Paths.get(cacheDirectory), fileNamesList);
+            parsedFiles = parseFiles(cache.getUncachedFiles(), parallelFrontEnd, mappedInput);
+            if (parsedFiles.stream().noneMatch(parsedFile -> parsedFile.errors)) {
+                // The signatures of the parsed files are taken from their
+                // ASTs, which are built here once and for all.
+                for (var parsedFile : parsedFiles)
+                    buildAST(parsedFile, fileNamesList.indexOf(parsedFile.fileName));
+                parsedFiles.addAll(parseFiles(cache.getStaleFiles(parsedFiles), parallelFrontEnd, mappedInput));
+                parsedFiles.sort(Comparator.comparingInt(parsedFile -> fileNamesList.indexOf(parsedFile.fileName)));
+            }
+        }
 
-            // Token stream
-            if (tokenStream == null)
-                tokenStream = new CommonTokenStream(lexer);
-            else
-                tokenStream.setTokenSource(lexer);
-                
-            /*
-            // Test lexer only.
-            tokenStream.fill();
-            List<Token> tokens = tokenStream.getTokens();
-            tokens.stream().forEach(token -> {
-                var text = token.getText();
-                var name = CoolLexer.VOCABULARY.getSymbolicName(token.getType());
-                
-                System.out.println(text + " : " + name);
-                //System.out.println(token);
-            });
-            */
-            
-            // Parser
-            if (parser == null)
-                parser = new CoolParser(tokenStream);
-            else
-                parser.setTokenStream(tokenStream);
-            
-            // Customized error listener, for including file names in error
-            // messages.
-            var errorListener = new BaseErrorListener() {
-                public boolean errors = false;
-                
-                @Override
-                public void syntaxError(Recognizer<?, ?> recognizer,
-                                        Object offendingSymbol,
-                                        int line, int charPositionInLine,
-                                        String msg,
-                                        RecognitionException e) {
-                    String newMsg = "\"" + new File(fileName).getName() + "\", line " +
-                                        line + ":" + (charPositionInLine + 1) + ", ";
-                    
-                    Token token = (Token)offendingSymbol;
-                    if (token.getType() == CoolLexer.ERROR)
-                        newMsg += "Lexical error: " + token.getText();
-                    else
-                        newMsg += "Syntax error: " + msg;
-                    
-                    System.err.println(newMsg);
-                    errors = true;
-                }
-            };
-            
-            parser.removeErrorListeners();
-            parser.addErrorListener(errorListener);
-            
-            // Actual parsing
-            var tree = parser.program();
-            if (globalTree == null)
-                globalTree = tree;
-            else
-                // Add the current parse tree's children to the global tree.
-                for (int i = 0; i < tree.getChildCount(); i++)
-                    globalTree.addAnyChild(tree.getChild(i));
-                    
-            // Annotate class nodes with file names, to be used later
-            // in semantic error messages.
-            for (int i = 0; i < tree.getChildCount(); i++) {
-                var child = tree.getChild(i);
-                // The only ParserRuleContext children of the program node
-                // are class nodes.
-                if (child instanceof ParserRuleContext)
-                    fileNames.put(child, fileName);
+        if (stats != null) {
+            var fileMeasures = new ArrayList<CompilationStats.Measure>();
+            long tokens = 0, nodes = 0;
+            for (var parsedFile : parsedFiles) {
+                stats.file(parsedFile.lexing);
+                stats.file(parsedFile.parsing);
+                fileMeasures.add(parsedFile.lexing);
+                fileMeasures.add(parsedFile.parsing);
+                tokens += parsedFile.lexing.counts.get("tokens");
+                nodes += countNodes(parsedFile.tree);
             }
+            stats.phase("lex+parse", start).resourcesOf(fileMeasures)
+                    .count("files", parsedFiles.size())
+                    .count("tokens", tokens)
+                    .count("parseTreeNodes", nodes);
+        }
+
+        // Errors are reported in command line order, regardless of the order
+        // in which the files finished parsing.
+        for (var parsedFile : parsedFiles) {
+            var errors = context.diagnostics.group();
+            for (var diagnostic : parsedFile.diagnostics)
+                errors.report(diagnostic);
             
             // Record any lexical or syntax errors.
-            lexicalSyntaxErrors |= errorListener.errors;
+            lexicalSyntaxErrors |= parsedFile.errors;
         }
 
         // Stop before semantic analysis phase, in case errors occurred.
         if (lexicalSyntaxErrors) {
-            System.err.println("Compilation halted");
+            context.diagnostics.flush();
+            err.println("Compilation halted");
             return;
         }
         
-        // Populate global scope.
-        SymbolTable.defineBasicClasses();
-        
         // TODO Semantic analysis
-        ASTConstructionVisitor astConstructionVisitor = new ASTConstructionVisitor();
-        ASTNode ast = globalTree.accept(astConstructionVisitor);
+        // The classes of all files make up one program, in command line
+        // order. Every node knows the index of its file, to be used later in
+        // semantic error messages. The AST of a file reused from the cache is
+        // read from it instead of being built.
+        start = new CompilationStats.Sample();
+        var ast = new Program();
+        // The classes of the parsed files, the only ones type checked.
+        var parsedClasses = new Program();
+        int astNodes = 0;
+        var parsed = parsedFiles.iterator();
+        for (var fileName : fileNamesList) {
+            if (cache != null && cache.isReused(fileName)) {
+                context.files.add(fileName);
+                ast.classes.addAll(cache.getReusedClasses(fileName));
+                continue;
+            }
+
+            var parsedFile = parsed.next();
+            context.files.add(parsedFile.fileName);
+            if (parsedFile.classes == null)
+                buildAST(parsedFile, context.files.size() - 1);
+            parsedClasses.classes.addAll(parsedFile.classes);
+            ast.classes.addAll(parsedFile.classes);
+            astNodes += parsedFile.astNodes;
+            // The AST keeps no reference into the parse tree, so the tree and
+            // its tokens can be collected from here on.
+            parsedFile.tree = null;
+        }
+        if (stats != null)
+            stats.phase("ast", start).count("astNodes", astNodes);
 
-        DefinitionPassVisitor definitionPassVisitor = new DefinitionPassVisitor();
+        start = new CompilationStats.Sample();
+        long lookups = context.symbolTable.lookupCount();
+        DefinitionPassVisitor definitionPassVisitor = new DefinitionPassVisitor(context);
         ast.accept(definitionPassVisitor);
+        if (stats != null)
+            stats.phase("definition", start)
+                    .count("symbols", context.symbolTable.symbolCount())
+                    .count("lookups", context.symbolTable.lookupCount() - lookups);
+
+        start = new CompilationStats.Sample();
+        lookups = context.symbolTable.lookupCount();
+        // Neither the reused files nor anything they depend on changed since
+        // they were found correct, so their classes keep the types found
+        // then. Should a type they name be gone all the same, they are
+        // checked again, once nothing else has errors.
+        var unboundClasses = new Program();
+        for (var fileName : fileNamesList)
+            if (cache != null && cache.isReused(fileName) && !cache.bindReusedTypes(fileName, context.symbolTable))
+                unboundClasses.classes.addAll(cache.getReusedClasses(fileName));
+        ResolutionPassVisitor resolutionPassVisitor =
+                new ResolutionPassVisitor(context, parallelFrontEnd, stats != null);
+        parsedClasses.accept(resolutionPassVisitor);
+        if (!context.symbolTable.hasSemanticErrors() && !unboundClasses.classes.isEmpty())
+            unboundClasses.accept(resolutionPassVisitor);
+        if (stats != null) {
+            var resolution = stats.phase("resolution", start)
+                    .count("lookups", context.symbolTable.lookupCount() - lookups);
+            // Classes checked in parallel ran on worker threads.
+            if (resolutionPassVisitor.getTaskMeasures() != null)
+                resolution.resourcesOf(resolutionPassVisitor.getTaskMeasures());
+        }
+
+        if (cache != null)
+            cache.update(ast, context);
 
-        ResolutionPassVisitor resolutionPassVisitor = new ResolutionPassVisitor();
-        ast.accept(resolutionPassVisitor);
-        if (SymbolTable.hasSemanticErrors()) {
-            System.err.println("Compilation halted");
+        if (context.symbolTable.hasSemanticErrors()) {
+            context.diagnostics.flush();
+            err.println("Compilation halted");
             return;
         }
+
+        // The assembly is written out class by class, as it is generated.
+        Writer out = outputFile == null
+                ? new BufferedWriter(new OutputStreamWriter(System.out))
+                : Files.newBufferedWriter(Paths.get(outputFile));
+        try {
+            start = new CompilationStats.Sample();
+            lookups = context.symbolTable.lookupCount();
+            var emitter = new CodeEmitter(out);
+            ast.accept(new CodeGenPassVisitor(context, emitter, spillAll, optimize));
+            emitter.flush();
+            if (stats != null)
+                stats.phase("codegen", start)
+                        .count("lookups", context.symbolTable.lookupCount() - lookups);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            // Standard output stays open for whatever comes next.
+            if (outputFile != null)
+                out.close();
+        }
+    }
+
+    // Result of lexing and parsing a single input file.
+    static class ParsedFile {
+        String fileName;
+        CoolParser.ProgramContext tree;
+        // Built from the tree, with the number of its nodes.
+        List<ClassNode> classes;
+        int astNodes;
+        // Lexical and syntax errors, in the order they were reported.
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        boolean errors = false;
+        // Taken in the thread that lexed and parsed the file.
+        CompilationStats.Measure lexing, parsing;
+    }
+
+    // Builds the AST of a parsed file, whose nodes know it by the given index.
+    static void buildAST(ParsedFile parsedFile, int file) {
+        var astConstructionVisitor = new ASTConstructionVisitor(file);
+        parsedFile.classes = ((Program) parsedFile.tree.accept(astConstructionVisitor)).classes;
+        parsedFile.astNodes = astConstructionVisitor.getNodeCount();
+    }
+
+    static List<ParsedFile> parseFiles(List<String> fileNamesList, boolean parallelFrontEnd,
+                                       boolean mappedInput)
+            throws IOException {
+        var parsedFiles = new ArrayList<ParsedFile>();
+
+        if (!parallelFrontEnd || fileNamesList.size() <= 1) {
+            for (var fileName : fileNamesList)
+                parsedFiles.add(parseFile(fileName, mappedInput));
+            return parsedFiles;
+        }
+
+        // Each file gets its own lexer and parser; the ATN and DFA caches
+        // are static and shared between them.
+        int threads = Math.min(fileNamesList.size(), Runtime.getRuntime().availableProcessors());
+        var executor = Executors.newFixedThreadPool(threads);
+        try {
+            var futures = new ArrayList<Future<ParsedFile>>();
+            for (var fileName : fileNamesList)
+                futures.add(executor.submit(() -> parseFile(fileName, mappedInput)));
+
+            for (var future : futures)
+                parsedFiles.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        return parsedFiles;
+    }
+
+    static ParsedFile parseFile(String fileName, boolean mappedInput) throws IOException {
+        var parsedFile = new ParsedFile();
+        parsedFile.fileName = fileName;
+
+        var start = new CompilationStats.Sample();
+        var input = mappedInput
+                ? MappedCharStream.fromPath(Paths.get(fileName))
+                : CharStreams.fromFileName(fileName);
+        
+        // Lexer
+        var lexer = new CoolLexer(input);
+
+        // Token stream
+        var tokenStream = new CommonTokenStream(lexer);
+            
+        /*
+        // Test lexer only.
+        tokenStream.fill();
+        List<Token> tokens = tokenStream.getTokens();
+        tokens.stream().forEach(token -> {
+            var text = token.getText();
+            var name = CoolLexer.VOCABULARY.getSymbolicName(token.getType());
+            
+            System.out.println(text + " : " + name);
+            //System.out.println(token);
+        });
+        */
+
+        // Lex the whole file up front, so that lexing and parsing are
+        // measured apart.
+        tokenStream.fill();
+        parsedFile.lexing = new CompilationStats.Measure("lex " + fileName, start)
+                .count("tokens", tokenStream.size());
+        start = new CompilationStats.Sample();
+
+        // Parser
+        var parser = new CoolParser(tokenStream);
+
+        // Customized error listener, for including file names in error
+        // messages.
+        var errorListener = new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer,
+                                    Object offendingSymbol,
+                                    int line, int charPositionInLine,
+                                    String msg,
+                                    RecognitionException e) {
+                Token token = (Token)offendingSymbol;
+                Diagnostic diagnostic;
+                if (token.getType() == CoolLexer.ERROR)
+                    diagnostic = new Diagnostic(fileName, line, charPositionInLine + 1,
+                            Diagnostic.Kind.LEXICAL, token.getText());
+                else
+                    diagnostic = new Diagnostic(fileName, line, charPositionInLine + 1,
+                            Diagnostic.Kind.SYNTAX, msg);
+
+                parsedFile.diagnostics.add(diagnostic);
+                parsedFile.errors = true;
+            }
+        };
+        
+        parsedFile.tree = parse(parser, errorListener);
+        parsedFile.parsing = new CompilationStats.Measure("parse " + fileName, start);
+        return parsedFile;
+    }
+
+    // Nodes of a parse tree, tokens included, without recursing on its depth.
+    private static long countNodes(ParseTree tree) {
+        long count = 0;
+        var pending = new ArrayDeque<ParseTree>();
+        pending.push(tree);
+        while (!pending.isEmpty()) {
+            var node = pending.pop();
+            count++;
+            for (int i = 0; i < node.getChildCount(); i++)
+                pending.push(node.getChild(i));
+        }
+        return count;
+    }
+
+    /**
+     * Parses a whole program, reporting syntax errors to {@code errorListener}
+     * only.
+     */
+    static CoolParser.ProgramContext parse(CoolParser parser, ANTLRErrorListener errorListener) {
+        parser.removeErrorListeners();
+
+        // Actual parsing. Try the cheaper SLL prediction first, giving up at
+        // the first error. Only if that fails is the file parsed again with
+        // full LL prediction and the usual error recovery, so the reported
+        // errors are the same as those of a plain LL parse.
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            return parser.program();
+        } catch (ParseCancellationException e) {
+            parser.reset();
+            parser.addErrorListener(errorListener);
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            return parser.program();
+        }
     }
 }
@@ -1,19 +1,48 @@
 package cool.compiler;
 
-import cool.parser.CoolParser;
 import cool.structures.*;
 
 public class  DefinitionPassVisitor implements ASTVisitor<Void> {
     public Scope currentScope;
     public TypeSymbol currentClass;
+    private final SymbolTable symbolTable;
+
+    public DefinitionPassVisitor(CompilationContext context) {
+        symbolTable = context.symbolTable;
+    }
+
     @Override
     public Void visit(Program program) {
-        SymbolTable.defineBasicClasses();
-        currentScope = SymbolTable.globals;
+        currentScope = symbolTable.globals;
         for (var cl : program.classes) {
             cl.accept(this);
         }
-        return null;
+        symbolTable.hierarchy = new ClassHierarchy(symbolTable);
+        symbolTable.resolveDeclaredTypes();
+        // Redefinitions of a class are not in the global scope, but they are
+        // still checked, so their features need their types too.
+        for (var cl : program.classes)
+            if (symbolTable.globals.lookup(cl.id) != cl.symbol)
+                symbolTable.resolveDeclaredTypes(cl.symbol);
+        symbolTable.layoutDispatchTables();
+        program.accept(new NameBindingVisitor(symbolTable));
+        checkEntryPoint(program);
+        return null;
+    }
+
+    // The runtime starts the program by calling Main.main on a new Main, so
+    // both have to be defined, the method in Main itself.
+    private void checkEntryPoint(Program program) {
+        var mainClass = symbolTable.globals.lookup("Main");
+        if (mainClass == null) {
+            symbolTable.error("Class Main is not defined");
+            return;
+        }
+        for (var cl : program.classes)
+            if (cl.symbol == mainClass && cl.symbol.methodsScope.lookupLocal("main") == null) {
+                String err = "Class Main has no method main";
+                symbolTable.error(cl.file, cl.typePosition, err);
+            }
     }
 
     @Override
@@ -41,9 +70,9 @@ public class  DefinitionPassVisitor implements ASTVisitor<Void> {
 
         if (currentClass.methodsScope.lookup(method.name) != null) {
             String err = "Class " + currentClass.getName() + " redefines method " + method.name;
-            SymbolTable.error(method.ctx, ((CoolParser.MethodContext) method.ctx).name, err);
+            symbolTable.error(method.file, method.namePosition, err);
         }
-        MethodSymbol funSymb = new MethodSymbol(currentScope, method.name);
+        MethodSymbol funSymb = symbolTable.newMethod(currentScope, method.name);
         funSymb.type = method.type;
         method.scope = funSymb;
         currentClass.methodsScope.add(funSymb);
@@ -53,7 +82,7 @@ public class  DefinitionPassVisitor implements ASTVisitor<Void> {
             formSym.type = formal.type;
             if (!method.scope.add(formSym)) {
                 String err = "Method " + method.name + " of class " + currentClass.getName() + " redefines formal parameter " + formal.name;
-                SymbolTable.error(formal.ctx, ((CoolParser.FormalContext) formal.ctx).name, err);
+                symbolTable.error(formal.file, formal.namePosition, err);
             }
         }
 
@@ -64,12 +93,12 @@ public class  DefinitionPassVisitor implements ASTVisitor<Void> {
     public Void visit(Attribute attribute) {
         if (currentClass.lookup(attribute.name) != null) {
             String err = "Class " + currentClass.getName() + " redefines attribute " + attribute.name;
-            SymbolTable.error(attribute.ctx, ((CoolParser.Class_varContext) attribute.ctx).var_decl().name, err);
+            symbolTable.error(attribute.file, attribute.namePosition, err);
             attribute.hasErr = true;
         }
         if (attribute.name.equals("self")) {
             String err = "Class " + currentClass.getName() + " has attribute with illegal name self";
-            SymbolTable.error(attribute.ctx, ((CoolParser.Class_varContext) attribute.ctx).var_decl().name, err);
+            symbolTable.error(attribute.file, attribute.namePosition, err);
             attribute.hasErr = true;
         }
 
@@ -84,19 +113,19 @@ public class  DefinitionPassVisitor implements ASTVisitor<Void> {
 
         if (classNode.id.equals("SELF_TYPE")) {
             String err = "Class has illegal name SELF_TYPE";
-            SymbolTable.error(classNode.ctx, ((CoolParser.ClassContext) classNode.ctx).type, err);
+            symbolTable.error(classNode.file, classNode.typePosition, err);
         }
         else if (currentScope.lookup(classNode.id) != null) {
             String err = "Class "+classNode.id+" is redefined";
-            SymbolTable.error(classNode.ctx, ((CoolParser.ClassContext) classNode.ctx).type, err);
+            symbolTable.error(classNode.file, classNode.typePosition, err);
         }
 
-        classNode.symbol = new TypeSymbol(classNode.id);
+        classNode.symbol = symbolTable.newType(classNode.id);
         if (classNode.parent != null) {
             classNode.symbol.superClass = classNode.parent;
         }
         currentClass = classNode.symbol;
-        SymbolTable.globals.add(classNode.symbol);
+        symbolTable.globals.add(classNode.symbol);
 
         for (var feat : classNode.features) {
             feat.accept(this);
@@ -0,0 +1,609 @@
+package cool.compiler;
+
+import cool.ir.BasicBlock;
+import cool.ir.Function;
+import cool.ir.Instruction.*;
+import cool.ir.Temp;
+import cool.structures.IdSymbol;
+import cool.structures.MethodSymbol;
+import cool.structures.Position;
+import cool.structures.SymbolTable;
+import cool.structures.TypeSymbol;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lowers the body of a method, or the attribute initializers of a class, to
+ * intermediate code, after the names in them are bound and their types
+ * checked. Every temp is typed with the static type of its value.
+ *
+ * Int and Bool values are kept raw wherever the types allow it: variables of
+ * these types hold the value itself, arithmetic and comparisons work on raw
+ * values, and conditions branch on them directly. An object is only made
+ * when such a value is passed as an argument, stored in an attribute or
+ * returned, and constants then use their static objects.
+ *
+ * Formals and locals live in temps. A variable that is never assigned shares
+ * the temp of its initial value; the others get a temp of their own.
+ */
+public class IRLoweringVisitor implements ASTVisitor<Temp> {
+    private final CodeGenPassVisitor codeGen;
+    private final SymbolTable symbolTable;
+
+    private Function function;
+    private TypeSymbol currentClass;
+    private BasicBlock current;
+    // Kind the value of the expression being visited is wanted as, set only
+    // for the expressions that take it with takeWanted().
+    private Temp.Kind wanted;
+
+    // Temp holding each formal and local of the method.
+    private final Map<IdSymbol, Temp> homes = new HashMap<>();
+    // Temps of the variables that are assigned somewhere in the method.
+    private final Set<Temp> mutableHomes = new HashSet<>();
+    // Values of the raw temps set by Const instructions.
+    private final Map<Temp, Integer> constants = new HashMap<>();
+    // Objects the raw temps were unboxed from, reused when they are boxed
+    // again.
+    private final Map<Temp, Temp> boxes = new HashMap<>();
+
+    public IRLoweringVisitor(CodeGenPassVisitor codeGen, SymbolTable symbolTable) {
+        this.codeGen = codeGen;
+        this.symbolTable = symbolTable;
+    }
+
+    public Function lower(Method method, TypeSymbol classSymbol) {
+        var formals = ((MethodSymbol) method.scope).getFormals().values();
+        start(classSymbol.getName() + "." + method.name, formals.size(), classSymbol);
+        int index = 0;
+        for (var formal : formals) {
+            var value = objectTemp(((IdSymbol) formal).typeSymbol);
+            current.add(new Param(value, index++));
+            bind((IdSymbol) formal, value);
+        }
+        // The body may end in another block than it starts in.
+        var result = lower(method.body, Temp.Kind.OBJECT);
+        current.add(new Return(result));
+        return function;
+    }
+
+    // The initializer runs that of the parent, then the initial values of
+    // the attributes, in order; the others keep those of the prototype.
+    public Function lowerInit(TypeSymbol classSymbol, List<Attribute> attributes) {
+        start(classSymbol.getName() + "_init", 0, classSymbol);
+        var parent = symbolTable.hierarchy.getParent(classSymbol);
+        if (parent != null) {
+            var call = new Call(null, function.self, new ArrayList<>(), null);
+            call.target = parent.getName() + "_init";
+            current.add(call);
+        }
+        for (var attribute : attributes) {
+            if (attribute.init == null)
+                continue;
+            var sym = (IdSymbol) classSymbol.attributesScope.lookupLocal(attribute.name);
+            var value = lower(attribute.init, Temp.Kind.OBJECT);
+            current.add(new Store(function.self, 12 + 4 * sym.slot, value));
+        }
+        current.add(new Return(function.self));
+        return function;
+    }
+
+    private void start(String label, int paramCount, TypeSymbol classSymbol) {
+        function = new Function(label, paramCount, classSymbol);
+        currentClass = classSymbol;
+        homes.clear();
+        mutableHomes.clear();
+        constants.clear();
+        boxes.clear();
+        startBlock(newBlock());
+    }
+
+    private BasicBlock newBlock() {
+        return new BasicBlock(codeGen.newLabel());
+    }
+
+    // Further instructions go into the given block, laid out after the
+    // blocks started so far.
+    private void startBlock(BasicBlock block) {
+        function.blocks.add(block);
+        current = block;
+    }
+
+    // SELF_TYPE stands for the current class, or one of its subclasses.
+    private TypeSymbol resolve(TypeSymbol type) {
+        if (type == symbolTable.selfType)
+            return currentClass;
+        return type == null ? symbolTable.objectType : type;
+    }
+
+    private TypeSymbol typeOf(Expression expr) {
+        return resolve(expr.staticType);
+    }
+
+    private Temp objectTemp(TypeSymbol type) {
+        return function.newTemp(Temp.Kind.OBJECT, resolve(type));
+    }
+
+    private Temp rawTemp(Temp.Kind kind) {
+        return function.newTemp(kind, kind == Temp.Kind.INT ? symbolTable.intType : symbolTable.boolType);
+    }
+
+    private Temp.Kind kindOf(TypeSymbol type) {
+        if (type == symbolTable.intType)
+            return Temp.Kind.INT;
+        if (type == symbolTable.boolType)
+            return Temp.Kind.BOOL;
+        return Temp.Kind.OBJECT;
+    }
+
+    private Temp constant(Temp.Kind kind, int value) {
+        var dst = rawTemp(kind);
+        current.add(new Const(dst, value));
+        constants.put(dst, value);
+        return dst;
+    }
+
+    private Temp voidValue(TypeSymbol type) {
+        var dst = objectTemp(type);
+        current.add(new Const(dst, 0));
+        return dst;
+    }
+
+    private Temp object(Temp value) {
+        if (!value.isRaw())
+            return value;
+        var box = boxes.get(value);
+        if (box != null)
+            return box;
+        var dst = objectTemp(value.type);
+        var constant = constants.get(value);
+        if (constant == null)
+            current.add(new Box(dst, value));
+        else if (value.kind == Temp.Kind.INT)
+            current.add(new Address(dst, codeGen.intConstant(constant)));
+        else
+            current.add(new Address(dst, "bool_const" + constant));
+        return dst;
+    }
+
+    // The value of an Int or Bool, whose static type is given by kind.
+    private Temp raw(Temp value, Temp.Kind kind) {
+        if (value.isRaw())
+            return value;
+        var dst = rawTemp(kind);
+        current.add(new Load(dst, value, 12));
+        if (!mutableHomes.contains(value))
+            boxes.put(dst, value);
+        return dst;
+    }
+
+    private Temp convert(Temp value, Temp.Kind kind) {
+        return kind == Temp.Kind.OBJECT ? object(value) : raw(value, kind);
+    }
+
+    // Lowers an expression whose value is needed as the given kind, if not
+    // null. Conditionals, lets, blocks and cases pass the kind on to the
+    // expressions that give their value, so each of these is converted on
+    // its own path; a formal returned as is keeps its object, for one.
+    private Temp lower(Expression expr, Temp.Kind kind) {
+        if (kind == null)
+            return expr.accept(this);
+        if (expr instanceof Decision || expr instanceof Let || expr instanceof Block
+                || expr instanceof Case)
+            wanted = kind;
+        return convert(expr.accept(this), kind);
+    }
+
+    private Temp.Kind takeWanted() {
+        var kind = wanted;
+        wanted = null;
+        return kind;
+    }
+
+    // Gives a formal or local its initial value.
+    private void bind(IdSymbol sym, Temp value) {
+        var kind = kindOf(sym.typeSymbol);
+        value = convert(value, kind);
+        if (sym.assigned || mutableHomes.contains(value)) {
+            var home = function.newTemp(kind, resolve(sym.typeSymbol));
+            current.add(new Copy(home, value));
+            value = home;
+        }
+        if (sym.assigned)
+            mutableHomes.add(value);
+        homes.put(sym, value);
+    }
+
+    private static boolean mayAssign(Expression expr) {
+        return !(expr instanceof Literal || expr instanceof Variable);
+    }
+
+    // A variable read before the given expressions are evaluated keeps the
+    // value it had then, even if they assign it.
+    private Temp snapshot(Temp value, List<? extends Expression> later) {
+        if (!mutableHomes.contains(value) || later.stream().noneMatch(IRLoweringVisitor::mayAssign))
+            return value;
+        var copy = function.newTemp(value);
+        current.add(new Copy(copy, value));
+        return copy;
+    }
+
+    // Both operands of an equality test, evaluated in order; the left one is
+    // raw if either is.
+    private Temp[] equalityOperands(BinaryOp binaryOp) {
+        var left = snapshot(binaryOp.operand1.accept(this), List.of(binaryOp.operand2));
+        var right = binaryOp.operand2.accept(this);
+        if (left.isRaw() || right.isRaw()) {
+            var kind = left.isRaw() ? left.kind : right.kind;
+            return new Temp[] { raw(left, kind), raw(right, kind) };
+        }
+        return new Temp[] { left, right };
+    }
+
+    private Temp[] intOperands(BinaryOp binaryOp) {
+        var left = lower(binaryOp.operand1, Temp.Kind.INT);
+        left = snapshot(left, List.of(binaryOp.operand2));
+        var right = lower(binaryOp.operand2, Temp.Kind.INT);
+        return new Temp[] { left, right };
+    }
+
+    // Jumps to ifTrue or ifFalse, without making a Bool object for the
+    // condition.
+    private void condition(Expression cond, BasicBlock ifTrue, BasicBlock ifFalse) {
+        if (cond instanceof BoolNeg) {
+            condition(((BoolNeg) cond).operand, ifFalse, ifTrue);
+            return;
+        }
+        if (cond instanceof BinaryOp) {
+            var binaryOp = (BinaryOp) cond;
+            if (!binaryOp.op.equals("=")) {
+                var operands = intOperands(binaryOp);
+                var op = binaryOp.op.equals("<") ? CompareBranch.Op.LT : CompareBranch.Op.LE;
+                current.add(new CompareBranch(op, operands[0], operands[1], ifTrue, ifFalse));
+                return;
+            }
+            var operands = equalityOperands(binaryOp);
+            if (operands[0].isRaw()) {
+                current.add(new CompareBranch(CompareBranch.Op.EQ, operands[0], operands[1],
+                        ifTrue, ifFalse));
+            } else {
+                var equal = rawTemp(Temp.Kind.BOOL);
+                current.add(new Equal(equal, operands[0], operands[1]));
+                current.add(new Branch(equal, ifTrue, ifFalse));
+            }
+            return;
+        }
+
+        var value = lower(cond, Temp.Kind.BOOL);
+        var constant = constants.get(value);
+        if (constant != null)
+            current.add(new Jump(constant != 0 ? ifTrue : ifFalse));
+        else
+            current.add(new Branch(value, ifTrue, ifFalse));
+    }
+
+    // Ends each of the blocks with a copy of its value into a common result
+    // of the given type, and continues in join. The result stays raw if all
+    // the values are raw values of the same type.
+    private Temp merge(List<BasicBlock> ends, List<Temp> values, BasicBlock join, TypeSymbol type) {
+        var kind = values.get(0).kind;
+        for (var value : values)
+            if (value.kind != kind)
+                kind = Temp.Kind.OBJECT;
+
+        var result = kind == Temp.Kind.OBJECT ? objectTemp(type) : rawTemp(kind);
+        for (int i = 0; i < ends.size(); i++) {
+            current = ends.get(i);
+            var value = convert(values.get(i), kind);
+            current.add(new Copy(result, value));
+            current.add(new Jump(join));
+        }
+        startBlock(join);
+        return result;
+    }
+
+    private List<Temp> arguments(List<Expression> params, Expression receiver) {
+        var args = new ArrayList<Temp>();
+        for (int i = 0; i < params.size(); i++) {
+            var value = lower(params.get(i), Temp.Kind.OBJECT);
+            if (mutableHomes.contains(value)) {
+                var later = new ArrayList<Expression>(params.subList(i + 1, params.size()));
+                if (receiver != null)
+                    later.add(receiver);
+                value = snapshot(value, later);
+            }
+            args.add(value);
+        }
+        return args;
+    }
+
+    @Override
+    public Temp visit(Program program) {
+        return null;
+    }
+
+    @Override
+    public Temp visit(ClassNode classNode) {
+        return null;
+    }
+
+    @Override
+    public Temp visit(Attribute attribute) {
+        return null;
+    }
+
+    @Override
+    public Temp visit(Method method) {
+        return null;
+    }
+
+    @Override
+    public Temp visit(Formal formal) {
+        return null;
+    }
+
+    @Override
+    public Temp visit(Literal literal) {
+        switch (literal.type) {
+            case STRING: {
+                var dst = objectTemp(symbolTable.stringType);
+                current.add(new Address(dst, codeGen.stringConstant(literal.val)));
+                return dst;
+            }
+            case BOOL:
+                return constant(Temp.Kind.BOOL, literal.val.equals("true") ? 1 : 0);
+            default:
+                return constant(Temp.Kind.INT, (int) Long.parseLong(literal.val));
+        }
+    }
+
+    @Override
+    public Temp visit(Assignment assignment) {
+        var sym = assignment.var.symbol;
+        if (sym.storage == IdSymbol.Storage.ATTRIBUTE) {
+            var value = lower(assignment.expr, Temp.Kind.OBJECT);
+            current.add(new Store(function.self, 12 + 4 * sym.slot, value));
+            return value;
+        }
+        var home = homes.get(sym);
+        var value = lower(assignment.expr, home.kind);
+        current.add(new Copy(home, value));
+        return value;
+    }
+
+    @Override
+    public Temp visit(Variable variable) {
+        if (variable.name.equals("self"))
+            return function.self;
+        var sym = variable.symbol;
+        if (sym.storage == IdSymbol.Storage.ATTRIBUTE) {
+            var dst = objectTemp(sym.typeSymbol);
+            current.add(new Load(dst, function.self, 12 + 4 * sym.slot));
+            return dst;
+        }
+        return homes.get(sym);
+    }
+
+    @Override
+    public Temp visit(IntNeg intNeg) {
+        var operand = lower(intNeg.operand, Temp.Kind.INT);
+        var dst = rawTemp(Temp.Kind.INT);
+        current.add(new Unary(dst, Unary.Op.NEG, operand));
+        return dst;
+    }
+
+    @Override
+    public Temp visit(BoolNeg boolNeg) {
+        var operand = lower(boolNeg.operand, Temp.Kind.BOOL);
+        var dst = rawTemp(Temp.Kind.BOOL);
+        current.add(new Unary(dst, Unary.Op.NOT, operand));
+        return dst;
+    }
+
+    @Override
+    public Temp visit(isVoid isVoid) {
+        var value = isVoid.operand.accept(this);
+        // Raw values are never void.
+        if (value.isRaw())
+            return constant(Temp.Kind.BOOL, 0);
+        var dst = rawTemp(Temp.Kind.BOOL);
+        current.add(new Unary(dst, Unary.Op.ISVOID, value));
+        return dst;
+    }
+
+    @Override
+    public Temp visit(ExplDispatch explDispatch) {
+        var args = arguments(explDispatch.params, explDispatch.object);
+        var receiver = lower(explDispatch.object, Temp.Kind.OBJECT);
+        var dst = objectTemp(typeOf(explDispatch));
+        var call = new Call(dst, receiver, args, explDispatch.methodSymbol);
+        call.staticClass = explDispatch.static_method;
+        call.checkVoid = receiver != function.self;
+        call.fileName = codeGen.currentFileName();
+        call.line = Position.line(explDispatch.start);
+        current.add(call);
+        return dst;
+    }
+
+    @Override
+    public Temp visit(ImplDispatch implDispatch) {
+        var args = arguments(implDispatch.params, null);
+        var dst = objectTemp(typeOf(implDispatch));
+        current.add(new Call(dst, function.self, args, implDispatch.methodSymbol));
+        return dst;
+    }
+
+    @Override
+    public Temp visit(Decision decision) {
+        var kind = takeWanted();
+        var thenBlock = newBlock();
+        var elseBlock = newBlock();
+        condition(decision.cond, thenBlock, elseBlock);
+
+        startBlock(thenBlock);
+        var thenValue = lower(decision.thenExpr, kind);
+        var thenEnd = current;
+        startBlock(elseBlock);
+        var elseValue = lower(decision.elseExpr, kind);
+        var elseEnd = current;
+        return merge(List.of(thenEnd, elseEnd), List.of(thenValue, elseValue), newBlock(),
+                typeOf(decision));
+    }
+
+    @Override
+    public Temp visit(Loop loop) {
+        var header = newBlock();
+        var body = newBlock();
+        var exit = newBlock();
+        current.add(new Jump(header));
+
+        startBlock(header);
+        condition(loop.cond, body, exit);
+        startBlock(body);
+        loop.body.accept(this);
+        current.add(new Jump(header));
+
+        startBlock(exit);
+        return voidValue(symbolTable.objectType);
+    }
+
+    @Override
+    public Temp visit(Let let) {
+        var kind = takeWanted();
+        for (var local : let.locals) {
+            var value = local.init != null
+                    ? lower(local.init, kindOf(local.symbol.typeSymbol))
+                    : defaultValue(local.symbol.typeSymbol);
+            bind(local.symbol, value);
+        }
+        return lower(let.body, kind);
+    }
+
+    private Temp defaultValue(TypeSymbol type) {
+        var kind = kindOf(type);
+        if (kind != Temp.Kind.OBJECT)
+            return constant(kind, 0);
+        if (type == symbolTable.stringType) {
+            var dst = objectTemp(type);
+            current.add(new Address(dst, codeGen.stringConstant("")));
+            return dst;
+        }
+        return voidValue(type);
+    }
+
+    @Override
+    public Temp visit(Local local) {
+        return null;
+    }
+
+    @Override
+    public Temp visit(Block block) {
+        var kind = takeWanted();
+        var last = block.expressions.size() - 1;
+        for (int i = 0; i < last; i++) {
+            block.expressions.get(i).accept(this);
+        }
+        return lower(block.expressions.get(last), kind);
+    }
+
+    @Override
+    public Temp visit(Case caseNode) {
+        var kind = takeWanted();
+        var value = lower(caseNode.expr, Temp.Kind.OBJECT);
+        var fileName = codeGen.currentFileName();
+        int line = Position.line(caseNode.start);
+
+        var nonVoid = newBlock();
+        var voidBlock = newBlock();
+        current.add(new Branch(value, nonVoid, voidBlock));
+        startBlock(voidBlock);
+        current.add(new Abort(Abort.Kind.CASE_VOID, value, fileName, line));
+
+        startBlock(nonVoid);
+        var tag = rawTemp(Temp.Kind.INT);
+        current.add(new Load(tag, value, 0));
+
+        // A subclass has a greater tag than its ancestors, so it is tested
+        // before them.
+        var branches = new ArrayList<>(caseNode.branches);
+        branches.sort(Comparator.comparingInt(
+                (CaseBranch branch) -> codeGen.tag(branch.symbol.typeSymbol)).reversed());
+        var ends = new ArrayList<BasicBlock>();
+        var values = new ArrayList<Temp>();
+        for (var branch : branches) {
+            var type = branch.symbol.typeSymbol;
+            int minTag = codeGen.tag(type);
+            int maxTag = codeGen.maxTag(type);
+            var body = newBlock();
+            var next = newBlock();
+            if (minTag == maxTag) {
+                current.add(new CompareBranch(CompareBranch.Op.NE, tag, minTag, next, body));
+            } else {
+                var belowMax = newBlock();
+                current.add(new CompareBranch(CompareBranch.Op.LT, tag, minTag, next, belowMax));
+                startBlock(belowMax);
+                current.add(new CompareBranch(CompareBranch.Op.GT, tag, maxTag, next, body));
+            }
+
+            startBlock(body);
+            bind(branch.symbol, value);
+            values.add(lower(branch.body, kind));
+            ends.add(current);
+            startBlock(next);
+        }
+        current.add(new Abort(Abort.Kind.CASE_NO_MATCH, value, fileName, line));
+        return merge(ends, values, newBlock(), typeOf(caseNode));
+    }
+
+    @Override
+    public Temp visit(CaseBranch caseBranch) {
+        return null;
+    }
+
+    @Override
+    public Temp visit(BinaryOp binaryOp) {
+        if (binaryOp.op.equals("=")) {
+            var operands = equalityOperands(binaryOp);
+            var dst = rawTemp(Temp.Kind.BOOL);
+            if (operands[0].isRaw())
+                current.add(new Binary(dst, Binary.Op.EQ, operands[0], operands[1]));
+            else
+                current.add(new Equal(dst, operands[0], operands[1]));
+            return dst;
+        }
+
+        var operands = intOperands(binaryOp);
+        Binary.Op op;
+        switch (binaryOp.op) {
+            case "<": op = Binary.Op.LT; break;
+            case "<=": op = Binary.Op.LE; break;
+            case "+": op = Binary.Op.ADD; break;
+            case "-": op = Binary.Op.SUB; break;
+            case "*": op = Binary.Op.MUL; break;
+            default: op = Binary.Op.DIV;
+        }
+        boolean comparison = op == Binary.Op.LT || op == Binary.Op.LE;
+        var dst = rawTemp(comparison ? Temp.Kind.BOOL : Temp.Kind.INT);
+        current.add(new Binary(dst, op, operands[0], operands[1]));
+        return dst;
+    }
+
+    @Override
+    public Temp visit(NewOp newOp) {
+        // Ints and Bools are immutable, so a new one is just its default
+        // value.
+        switch (newOp.type) {
+            case "Int": return constant(Temp.Kind.INT, 0);
+            case "Bool": return constant(Temp.Kind.BOOL, 0);
+        }
+        var dst = objectTemp(typeOf(newOp));
+        current.add(new New(dst, newOp.type.equals("SELF_TYPE") ? null : newOp.type));
+        return dst;
+    }
+}
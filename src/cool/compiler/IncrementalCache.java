@@ -0,0 +1,579 @@
+package cool.compiler;
+
+import cool.structures.SymbolTable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * On-disk cache of the analysis results of source files, for incremental
+ * recompilation.
+ *
+ * Entries are keyed by the hash of a file's contents. Each one holds the
+ * signatures of the classes the file defines, as exported by the definition
+ * pass, together with the digests of the signatures of all the classes the
+ * file depended upon when it was analyzed. An entry is only written for a
+ * file that produced no diagnostics, and it can be reused as long as none of
+ * its dependencies changed. Such a file is then not parsed again: its AST
+ * is read back from the entry, with the types the resolution pass found for
+ * it, which cannot have changed either. It only goes through the definition
+ * pass, for its symbols, and code generation.
+ *
+ * Entries of files that are not part of the compilation any more are
+ * removed, so the directory only holds those of the current sources.
+ */
+public class IncrementalCache {
+    public static final String DEFAULT_DIRECTORY = ".coolcache";
+
+    private static final Set<String> BASIC_CLASSES =
+            Set.of("Object", "IO", "Int", "String", "Bool", "SELF_TYPE");
+
+    static class MethodSignature {
+        String name;
+        String type;
+        // {name, type} pairs.
+        List<String[]> formals = new ArrayList<>();
+    }
+
+    static class ClassSignature {
+        String name;
+        String parent;
+        // {name, type} pairs.
+        List<String[]> attributes = new ArrayList<>();
+        List<MethodSignature> methods = new ArrayList<>();
+
+        String canonicalText() {
+            var text = new StringBuilder("class ").append(name)
+                    .append(" inherits ").append(parent).append('\n');
+            for (var attribute : attributes)
+                text.append(attribute[0]).append(':').append(attribute[1]).append('\n');
+            for (var method : methods) {
+                text.append(method.name).append('(');
+                for (var formal : method.formals)
+                    text.append(formal[0]).append(':').append(formal[1]).append(',');
+                text.append("):").append(method.type).append('\n');
+            }
+            return text.toString();
+        }
+    }
+
+    // Entries are written with DataOutput rather than serialized, since
+    // reading them must cost much less than parsing the file again.
+    static class Entry {
+        // Written first; entries of any other version are treated as missing.
+        static final int VERSION = 3;
+
+        List<ClassSignature> classes = new ArrayList<>();
+        // Class name -> digest of its signatures, empty if it was undefined.
+        Map<String, String> dependencies = new HashMap<>();
+        // The classes of the file, written by ASTCodec, only read once the
+        // entry is known to be reused.
+        byte[] ast;
+
+        // A class without a parent has an empty one.
+        void write(DataOutput out) throws IOException {
+            out.writeInt(VERSION);
+            out.writeInt(classes.size());
+            for (var signature : classes) {
+                out.writeUTF(signature.name);
+                out.writeUTF(signature.parent == null ? "" : signature.parent);
+                writePairs(out, signature.attributes);
+                out.writeInt(signature.methods.size());
+                for (var method : signature.methods) {
+                    out.writeUTF(method.name);
+                    out.writeUTF(method.type);
+                    writePairs(out, method.formals);
+                }
+            }
+            out.writeInt(dependencies.size());
+            for (var dependency : dependencies.entrySet()) {
+                out.writeUTF(dependency.getKey());
+                out.writeUTF(dependency.getValue());
+            }
+            out.writeInt(ast.length);
+            out.write(ast);
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            if (in.readInt() != VERSION)
+                return null;
+            var entry = new Entry();
+            for (int i = in.readInt(); i > 0; i--) {
+                var signature = new ClassSignature();
+                signature.name = in.readUTF();
+                signature.parent = in.readUTF();
+                if (signature.parent.isEmpty())
+                    signature.parent = null;
+                readPairs(in, signature.attributes);
+                for (int j = in.readInt(); j > 0; j--) {
+                    var method = new MethodSignature();
+                    method.name = in.readUTF();
+                    method.type = in.readUTF();
+                    readPairs(in, method.formals);
+                    signature.methods.add(method);
+                }
+                entry.classes.add(signature);
+            }
+            for (int i = in.readInt(); i > 0; i--)
+                entry.dependencies.put(in.readUTF(), in.readUTF());
+            int length = in.readInt();
+            // Read in chunks, so that a bad length fails at the end of the file.
+            entry.ast = in.readNBytes(length);
+            if (entry.ast.length != length)
+                throw new EOFException();
+            return entry;
+        }
+
+        private static void writePairs(DataOutput out, List<String[]> pairs) throws IOException {
+            out.writeInt(pairs.size());
+            for (var pair : pairs) {
+                out.writeUTF(pair[0]);
+                out.writeUTF(pair[1]);
+            }
+        }
+
+        private static void readPairs(DataInput in, List<String[]> pairs) throws IOException {
+            for (int i = in.readInt(); i > 0; i--)
+                pairs.add(new String[] {in.readUTF(), in.readUTF()});
+        }
+    }
+
+    private final Path directory;
+    private final List<String> fileNames;
+    private final Map<String, String> hashes = new HashMap<>();
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    // Signatures of the classes of each file, in command line order.
+    private final Map<String, List<ClassSignature>> signatures = new LinkedHashMap<>();
+
+    // Files whose cached entries are used in this compilation, with their
+    // classes.
+    private final Map<String, ASTCodec.Decoded> reusedFiles = new LinkedHashMap<>();
+
+    public IncrementalCache(Path directory, List<String> fileNames) throws IOException {
+        this.directory = directory;
+        this.fileNames = fileNames;
+
+        for (var fileName : fileNames) {
+            var hash = hash(Files.readAllBytes(Paths.get(fileName)));
+            hashes.put(fileName, hash);
+            var entry = load(hash);
+            if (entry != null)
+                entries.put(fileName, entry);
+        }
+    }
+
+    /**
+     * @return the files with no cache entry, which have to be parsed in any
+     *         case.
+     */
+    public List<String> getUncachedFiles() {
+        var uncached = new ArrayList<String>();
+        for (var fileName : fileNames)
+            if (!entries.containsKey(fileName))
+                uncached.add(fileName);
+        return uncached;
+    }
+
+    /**
+     * Checks the cached files against the signatures of the freshly parsed
+     * ones, whose ASTs must be built already.
+     *
+     * @return the cached files whose entries are stale, and must be parsed as
+     *         well.
+     */
+    public List<String> getStaleFiles(List<Compiler.ParsedFile> parsedFiles) {
+        for (var fileName : fileNames) {
+            var entry = entries.get(fileName);
+            if (entry != null)
+                signatures.put(fileName, entry.classes);
+        }
+        for (var parsedFile : parsedFiles)
+            signatures.put(parsedFile.fileName, extractSignatures(parsedFile.classes));
+        reorderSignatures();
+
+        var digests = digests();
+        var stale = new ArrayList<String>();
+        for (var fileName : fileNames) {
+            var entry = entries.get(fileName);
+            if (entry == null)
+                continue;
+
+            boolean upToDate = true;
+            for (var dependency : entry.dependencies.entrySet())
+                if (!dependency.getValue().equals(digests.getOrDefault(dependency.getKey(), ""))) {
+                    upToDate = false;
+                    break;
+                }
+
+            // An AST that cannot be read back is parsed again.
+            var decoded = upToDate
+                    ? ASTCodec.read(entry.ast, fileNames.indexOf(fileName)) : null;
+            if (decoded != null)
+                reusedFiles.put(fileName, decoded);
+            else
+                stale.add(fileName);
+        }
+        return stale;
+    }
+
+    public boolean isReused(String fileName) {
+        return reusedFiles.containsKey(fileName);
+    }
+
+    /**
+     * @return the classes of a reused file, with no symbols yet; they still
+     *         have to go through the definition pass.
+     */
+    public List<ClassNode> getReusedClasses(String fileName) {
+        return reusedFiles.get(fileName).classes;
+    }
+
+    /**
+     * Gives the nodes of a reused file the types and methods the resolution
+     * pass found for them when it was cached, once the definition pass is
+     * over.
+     *
+     * @return false if some of them are not defined any more, in which case
+     *         the classes of the file have to be resolved again.
+     */
+    public boolean bindReusedTypes(String fileName, SymbolTable symbolTable) {
+        return reusedFiles.get(fileName).bind(symbolTable);
+    }
+
+    /**
+     * Writes entries for the analyzed files that produced no diagnostics,
+     * and removes those of files not in this compilation.
+     */
+    public void update(Program program, CompilationContext context) {
+        var digests = digests();
+        var symbolTable = context.symbolTable;
+
+        var classesByFile = new LinkedHashMap<String, List<ClassNode>>();
+        for (var classNode : program.classes)
+            classesByFile.computeIfAbsent(context.files.get(classNode.file), f -> new ArrayList<>())
+                    .add(classNode);
+
+        for (var fileName : fileNames) {
+            if (reusedFiles.containsKey(fileName) || symbolTable.hasSemanticErrors(fileName))
+                continue;
+
+            var classes = classesByFile.getOrDefault(fileName, List.of());
+            var entry = new Entry();
+            entry.classes = signatures.get(fileName);
+            entry.ast = ASTCodec.write(classes);
+
+            var referenced = new TypeReferenceCollector();
+            for (var classNode : classes)
+                classNode.accept(referenced);
+            for (var name : dependencyClosure(referenced.names))
+                entry.dependencies.put(name, digests.getOrDefault(name, ""));
+
+            try {
+                store(hashes.get(fileName), entry);
+            } catch (IOException e) {
+                // A missing entry only costs a recompilation next time.
+            }
+        }
+        prune();
+    }
+
+    // Removes the entries of contents that none of the files has any more.
+    private void prune() {
+        var current = new HashSet<>(hashes.values());
+        try (var paths = Files.newDirectoryStream(directory, IncrementalCache::isEntry)) {
+            for (var path : paths)
+                if (!current.contains(path.getFileName().toString()))
+                    Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Left over entries are only removed later.
+        }
+    }
+
+    // Entries are named by a SHA-256 hash; files being written are not.
+    private static boolean isEntry(Path path) {
+        var name = path.getFileName().toString();
+        return name.length() == 64 && name.chars().allMatch(c -> Character.digit(c, 16) >= 0);
+    }
+
+    /**
+     * @return the given classes, plus every class whose signature they may
+     *         observe, through inheritance or the types of their features.
+     */
+    private Set<String> dependencyClosure(Set<String> names) {
+        var firstDefinitions = new HashMap<String, ClassSignature>();
+        for (var fileSignatures : signatures.values())
+            for (var signature : fileSignatures)
+                firstDefinitions.putIfAbsent(signature.name, signature);
+
+        var closure = new TreeSet<String>();
+        var worklist = new ArrayDeque<>(names);
+        while (!worklist.isEmpty()) {
+            var name = worklist.pop();
+            if (BASIC_CLASSES.contains(name) || !closure.add(name))
+                continue;
+
+            var signature = firstDefinitions.get(name);
+            if (signature == null)
+                continue;
+            if (signature.parent != null)
+                worklist.push(signature.parent);
+            for (var attribute : signature.attributes)
+                worklist.push(attribute[1]);
+            for (var method : signature.methods) {
+                worklist.push(method.type);
+                for (var formal : method.formals)
+                    worklist.push(formal[1]);
+            }
+        }
+        return closure;
+    }
+
+    private void reorderSignatures() {
+        var ordered = new LinkedHashMap<String, List<ClassSignature>>();
+        for (var fileName : fileNames)
+            if (signatures.containsKey(fileName))
+                ordered.put(fileName, signatures.get(fileName));
+        signatures.clear();
+        signatures.putAll(ordered);
+    }
+
+    // Digest of every class name, over all of its definitions in file order.
+    private Map<String, String> digests() {
+        var texts = new HashMap<String, StringBuilder>();
+        for (var fileSignatures : signatures.values())
+            for (var signature : fileSignatures)
+                texts.computeIfAbsent(signature.name, n -> new StringBuilder())
+                        .append(signature.canonicalText());
+
+        var digests = new HashMap<String, String>();
+        for (var text : texts.entrySet())
+            digests.put(text.getKey(), hash(text.getValue().toString().getBytes(StandardCharsets.UTF_8)));
+        return digests;
+    }
+
+    private static List<ClassSignature> extractSignatures(List<ClassNode> classes) {
+        var result = new ArrayList<ClassSignature>();
+        for (var classNode : classes) {
+            var signature = new ClassSignature();
+            signature.name = classNode.id;
+            signature.parent = classNode.parent;
+            for (var feature : classNode.features) {
+                if (feature instanceof Attribute) {
+                    signature.attributes.add(new String[] {feature.name, feature.type});
+                } else {
+                    var method = new MethodSignature();
+                    method.name = feature.name;
+                    method.type = feature.type;
+                    for (var formal : ((Method) feature).formals)
+                        method.formals.add(new String[] {formal.name, formal.type});
+                    signature.methods.add(method);
+                }
+            }
+            result.add(signature);
+        }
+        return result;
+    }
+
+    private Entry load(String hash) {
+        var path = directory.resolve(hash);
+        if (!Files.isRegularFile(path))
+            return null;
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return Entry.read(in);
+        } catch (IOException | IllegalArgumentException e) {
+            // Unreadable entries are treated as missing.
+            return null;
+        }
+    }
+
+    private void store(String hash, Entry entry) throws IOException {
+        Files.createDirectories(directory);
+
+        // Written aside and moved in place, so that concurrent compilations
+        // never see a partial entry.
+        var temp = Files.createTempFile(directory, hash, ".tmp");
+        try {
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                entry.write(out);
+            }
+            Files.move(temp, directory.resolve(hash), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // Gone already if it was moved in place.
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Collects the names of all the types mentioned by a class.
+    private static class TypeReferenceCollector implements ASTVisitor<Void> {
+        Set<String> names = new HashSet<>();
+
+        private void visitAll(List<? extends ASTNode> nodes) {
+            for (var node : nodes)
+                node.accept(this);
+        }
+
+        @Override
+        public Void visit(Program program) {
+            visitAll(program.classes);
+            return null;
+        }
+
+        @Override
+        public Void visit(ClassNode classNode) {
+            names.add(classNode.id);
+            if (classNode.parent != null)
+                names.add(classNode.parent);
+            visitAll(classNode.features);
+            return null;
+        }
+
+        @Override
+        public Void visit(Method method) {
+            names.add(method.type);
+            visitAll(method.formals);
+            method.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Formal formal) {
+            names.add(formal.type);
+            return null;
+        }
+
+        @Override
+        public Void visit(Attribute attribute) {
+            names.add(attribute.type);
+            if (attribute.init != null)
+                attribute.init.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Literal literal) {
+            return null;
+        }
+
+        @Override
+        public Void visit(Assignment assignment) {
+            assignment.expr.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Variable variable) {
+            return null;
+        }
+
+        @Override
+        public Void visit(IntNeg intNeg) {
+            intNeg.operand.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(BoolNeg boolNeg) {
+            boolNeg.operand.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(isVoid isVoid) {
+            isVoid.operand.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(ExplDispatch explDispatch) {
+            if (explDispatch.static_method != null)
+                names.add(explDispatch.static_method);
+            explDispatch.object.accept(this);
+            visitAll(explDispatch.params);
+            return null;
+        }
+
+        @Override
+        public Void visit(ImplDispatch implDispatch) {
+            visitAll(implDispatch.params);
+            return null;
+        }
+
+        @Override
+        public Void visit(Decision decision) {
+            decision.cond.accept(this);
+            decision.thenExpr.accept(this);
+            decision.elseExpr.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Loop loop) {
+            loop.cond.accept(this);
+            loop.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Let let) {
+            visitAll(let.locals);
+            let.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Local local) {
+            names.add(local.type);
+            if (local.init != null)
+                local.init.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(Block block) {
+            visitAll(block.expressions);
+            return null;
+        }
+
+        @Override
+        public Void visit(Case caseNode) {
+            caseNode.expr.accept(this);
+            visitAll(caseNode.branches);
+            return null;
+        }
+
+        @Override
+        public Void visit(CaseBranch caseBranch) {
+            names.add(caseBranch.type);
+            caseBranch.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(BinaryOp binaryOp) {
+            binaryOp.operand1.accept(this);
+            binaryOp.operand2.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visit(NewOp newOp) {
+            names.add(newOp.type);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package cool.compiler;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Input of the lexer read straight from a memory-mapped file, one byte per
+ * character, instead of being decoded into an array of code points.
+ *
+ * Only ASCII files are read this way, since then bytes and characters are
+ * the same; anything else goes through the usual UTF-8 decoding. Token
+ * texts are made from the mapped bytes when they are asked for.
+ */
+public class MappedCharStream implements CharStream {
+    private final ByteBuffer bytes;
+    private final int size;
+    private final String sourceName;
+    private int position;
+
+    private MappedCharStream(ByteBuffer bytes, String sourceName) {
+        this.bytes = bytes;
+        this.size = bytes.limit();
+        this.sourceName = sourceName;
+    }
+
+    public static CharStream fromPath(Path path) throws IOException {
+        ByteBuffer bytes;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // A mapping cannot hold more than 2 GB.
+            if (channel.size() > Integer.MAX_VALUE)
+                return CharStreams.fromPath(path);
+            // The mapping stays valid once the channel is closed.
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        for (int i = 0; i < bytes.limit(); i++)
+            if (bytes.get(i) < 0)
+                return CharStreams.fromPath(path);
+        return new MappedCharStream(bytes, path.toString());
+    }
+
+    @Override
+    public void consume() {
+        if (position >= size)
+            throw new IllegalStateException("cannot consume EOF");
+        position++;
+    }
+
+    @Override
+    public int LA(int i) {
+        int offset;
+        if (i > 0)
+            offset = position + i - 1;
+        else if (i < 0)
+            offset = position + i;
+        else
+            return 0; // undefined
+        return offset < 0 || offset >= size ? IntStream.EOF : bytes.get(offset);
+    }
+
+    // Every byte stays mapped, so any position may be sought at any time.
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return position;
+    }
+
+    @Override
+    public void seek(int index) {
+        position = index;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = Math.min(interval.a, size);
+        int length = Math.min(interval.b - interval.a + 1, size - start);
+        if (length <= 0)
+            return "";
+        var text = new byte[length];
+        bytes.get(start, text);
+        return new String(text, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        return getText(Interval.of(0, size - 1));
+    }
+}
@@ -0,0 +1,353 @@
+package cool.compiler;
+
+import cool.ir.Allocation;
+import cool.ir.BasicBlock;
+import cool.ir.Function;
+import cool.ir.Instruction;
+import cool.ir.Instruction.*;
+import cool.ir.LinearScanAllocator;
+import cool.ir.Temp;
+import org.stringtemplate.v4.ST;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects MIPS instructions for the intermediate code of a method or class
+ * initializer, once its temps have registers or spill slots.
+ *
+ * A spilled operand is loaded into $t8 or $t9 just before it is read, and a
+ * spilled result is computed in $v1 and stored right after. The blocks are
+ * written in layout order, so jumps to the next block are left out.
+ */
+public class MipsGenerator {
+    private final CodeGenPassVisitor codeGen;
+
+    private Function function;
+    private Allocation allocation;
+    private List<String> lines;
+    // Block laid out after the one being generated, null after the last.
+    private BasicBlock next;
+    private String exitLabel;
+
+    public MipsGenerator(CodeGenPassVisitor codeGen) {
+        this.codeGen = codeGen;
+    }
+
+    public ST generate(Function function, Allocation allocation) {
+        this.function = function;
+        this.allocation = allocation;
+        this.lines = new ArrayList<>();
+        this.exitLabel = codeGen.newLabel();
+
+        var saved = allocation.calleeSavedRegisters();
+        for (int i = 0; i < saved.size(); i++)
+            emit("sw " + saved.get(i) + " " + -4 * (i + 1) + "($fp)");
+
+        var blocks = function.blocks;
+        for (int i = 0; i < blocks.size(); i++) {
+            var block = blocks.get(i);
+            next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            if (i > 0)
+                label(block.label);
+            for (var instruction : block.instructions)
+                generate(instruction);
+        }
+
+        label(exitLabel);
+        for (int i = 0; i < saved.size(); i++)
+            emit("lw " + saved.get(i) + " " + -4 * (i + 1) + "($fp)");
+
+        int frame = 4 * (saved.size() + allocation.spillSlotCount());
+        return CodeGenPassVisitor.templates.getInstanceOf("method")
+                .add("label", function.label)
+                .add("frame", frame > 0 ? frame : null)
+                .add("body", lines)
+                .add("params", 12 + 4 * function.paramCount);
+    }
+
+    private void emit(String instruction) {
+        lines.add("    " + instruction);
+    }
+
+    private void label(String label) {
+        lines.add(label + ":");
+    }
+
+    // Spill slots come after the saved registers, below $fp.
+    private String spillSlot(Temp temp) {
+        int index = allocation.calleeSavedRegisters().size() + allocation.spillSlot(temp);
+        return -4 * (index + 1) + "($fp)";
+    }
+
+    // Register holding the operand, loaded into scratch if it is spilled.
+    private String read(Temp temp, String scratch) {
+        if (temp == function.self)
+            return "$s0";
+        var register = allocation.register(temp);
+        if (register != null)
+            return register;
+        emit("lw " + scratch + " " + spillSlot(temp));
+        return scratch;
+    }
+
+    // Register to compute the result in; written() stores it if needed.
+    private String target(Temp temp) {
+        var register = allocation.register(temp);
+        return register != null ? register : "$v1";
+    }
+
+    private void written(Temp temp) {
+        if (allocation.register(temp) == null)
+            emit("sw $v1 " + spillSlot(temp));
+    }
+
+    private void move(Temp dst, String src) {
+        var register = allocation.register(dst);
+        if (register == null)
+            emit("sw " + src + " " + spillSlot(dst));
+        else if (!register.equals(src))
+            emit("move " + register + " " + src);
+    }
+
+    private void generate(Instruction instruction) {
+        if (instruction instanceof Copy) {
+            var copy = (Copy) instruction;
+            move(copy.dst, read(copy.src, "$t8"));
+        } else if (instruction instanceof Const) {
+            var constant = (Const) instruction;
+            emit("li " + target(constant.dst) + " " + constant.value);
+            written(constant.dst);
+        } else if (instruction instanceof Address) {
+            var address = (Address) instruction;
+            emit("la " + target(address.dst) + " " + address.label);
+            written(address.dst);
+        } else if (instruction instanceof Param) {
+            var param = (Param) instruction;
+            int offset = 12 + 4 * (function.paramCount - 1 - param.index);
+            emit("lw " + target(param.dst) + " " + offset + "($fp)");
+            written(param.dst);
+        } else if (instruction instanceof Load) {
+            var load = (Load) instruction;
+            var base = read(load.base, "$t8");
+            emit("lw " + target(load.dst) + " " + load.offset + "(" + base + ")");
+            written(load.dst);
+        } else if (instruction instanceof Store) {
+            var store = (Store) instruction;
+            var base = read(store.base, "$t8");
+            var src = read(store.src, "$t9");
+            emit("sw " + src + " " + store.offset + "(" + base + ")");
+        } else if (instruction instanceof Binary) {
+            generateBinary((Binary) instruction);
+        } else if (instruction instanceof Unary) {
+            generateUnary((Unary) instruction);
+        } else if (instruction instanceof Box) {
+            generateBox((Box) instruction);
+        } else if (instruction instanceof Equal) {
+            generateEqual((Equal) instruction);
+        } else if (instruction instanceof Call) {
+            generateCall((Call) instruction);
+        } else if (instruction instanceof New) {
+            var newObject = (New) instruction;
+            if (newObject.className == null) {
+                lines.add(CodeGenPassVisitor.templates.getInstanceOf("new_self_type").render());
+            } else {
+                lines.add(CodeGenPassVisitor.templates.getInstanceOf("new")
+                        .add("type", newObject.className).render());
+            }
+            if (newObject.dst != null)
+                move(newObject.dst, "$a0");
+        } else {
+            generateTerminator(instruction);
+        }
+    }
+
+    private void generateBinary(Binary binary) {
+        var left = read(binary.left, "$t8");
+        var right = read(binary.right, "$t9");
+        String op;
+        switch (binary.op) {
+            case ADD: op = "addu"; break;
+            case SUB: op = "subu"; break;
+            case MUL: op = "mul"; break;
+            case DIV: op = "div"; break;
+            case LT: op = "slt"; break;
+            case LE: op = "sle"; break;
+            default: op = "seq";
+        }
+        emit(op + " " + target(binary.dst) + " " + left + " " + right);
+        written(binary.dst);
+    }
+
+    private void generateUnary(Unary unary) {
+        var operand = read(unary.operand, "$t8");
+        var dst = target(unary.dst);
+        switch (unary.op) {
+            case NEG: emit("negu " + dst + " " + operand); break;
+            case NOT: emit("xori " + dst + " " + operand + " 1"); break;
+            default: emit("seq " + dst + " " + operand + " $zero");
+        }
+        written(unary.dst);
+    }
+
+    private void generateBox(Box box) {
+        var src = read(box.src, "$t8");
+        if (box.src.kind == Temp.Kind.BOOL) {
+            var label = codeGen.newLabel();
+            var dst = target(box.dst);
+            if (!src.equals("$t8"))
+                emit("move $t8 " + src);
+            emit("la " + dst + " bool_const1");
+            emit("bnez $t8 " + label);
+            emit("la " + dst + " bool_const0");
+            label(label);
+            written(box.dst);
+            return;
+        }
+        // Unless it is in a callee-saved register, the value is kept on the
+        // stack while the Int is copied.
+        boolean saved = LinearScanAllocator.CALLEE_SAVED.contains(src);
+        if (!saved) {
+            emit("sw " + src + " 0($sp)");
+            emit("addiu $sp $sp -4");
+        }
+        emit("la $a0 Int_protObj");
+        emit("jal Object.copy");
+        if (!saved) {
+            emit("lw $t8 4($sp)");
+            emit("addiu $sp $sp 4");
+            src = "$t8";
+        }
+        emit("sw " + src + " 12($a0)");
+        move(box.dst, "$a0");
+    }
+
+    private void generateEqual(Equal equal) {
+        var left = read(equal.left, "$t8");
+        var right = read(equal.right, "$t9");
+        // The runtime takes the operands in $t1 and $t2.
+        if (right.equals("$t1")) {
+            emit("move $t9 " + right);
+            right = "$t9";
+        }
+        if (!left.equals("$t1"))
+            emit("move $t1 " + left);
+        if (!right.equals("$t2"))
+            emit("move $t2 " + right);
+        var label = codeGen.newLabel();
+        emit("la $a0 bool_const1");
+        emit("beq $t1 $t2 " + label);
+        emit("la $a1 bool_const0");
+        emit("jal equality_test");
+        label(label);
+        emit("lw " + target(equal.dst) + " 12($a0)");
+        written(equal.dst);
+    }
+
+    // The arguments are pushed in order, the receiver goes in $a0.
+    private void generateCall(Call call) {
+        int count = call.args.size();
+        if (count > 0) {
+            emit("addiu $sp $sp " + -4 * count);
+            for (int i = 0; i < count; i++)
+                emit("sw " + read(call.args.get(i), "$t8") + " " + 4 * (count - i) + "($sp)");
+        }
+
+        var receiver = read(call.receiver, "$a0");
+        if (!receiver.equals("$a0"))
+            emit("move $a0 " + receiver);
+        if (call.checkVoid) {
+            var label = codeGen.newLabel();
+            emit("bnez $a0 " + label);
+            emit("la $a0 " + call.fileName);
+            emit("li $t1 " + call.line);
+            emit("jal _dispatch_abort");
+            label(label);
+        }
+
+        if (call.target != null) {
+            emit("jal " + call.target);
+        } else {
+            if (call.staticClass != null)
+                emit("la $t8 " + call.staticClass + "_dispTab");
+            else
+                emit("lw $t8 8($a0)");
+            emit("lw $t8 " + 4 * call.method.dispatchSlot + "($t8)");
+            emit("jalr $t8");
+        }
+        if (call.dst != null)
+            move(call.dst, "$a0");
+    }
+
+    private void generateTerminator(Instruction instruction) {
+        if (instruction instanceof Jump) {
+            jump(((Jump) instruction).target);
+        } else if (instruction instanceof Branch) {
+            var branch = (Branch) instruction;
+            var cond = read(branch.cond, "$t8");
+            if (branch.ifTrue == next) {
+                emit("beqz " + cond + " " + branch.ifFalse.label);
+            } else {
+                emit("bnez " + cond + " " + branch.ifTrue.label);
+                jump(branch.ifFalse);
+            }
+        } else if (instruction instanceof CompareBranch) {
+            var branch = (CompareBranch) instruction;
+            var left = read(branch.left, "$t8");
+            var right = branch.right == null
+                    ? String.valueOf(branch.immediate)
+                    : read(branch.right, "$t9");
+            if (branch.ifTrue == next) {
+                emit(compareBranch(negate(branch.op)) + " " + left + " " + right + " " + branch.ifFalse.label);
+            } else {
+                emit(compareBranch(branch.op) + " " + left + " " + right + " " + branch.ifTrue.label);
+                jump(branch.ifFalse);
+            }
+        } else if (instruction instanceof Return) {
+            var value = read(((Return) instruction).value, "$a0");
+            if (!value.equals("$a0"))
+                emit("move $a0 " + value);
+            if (next != null)
+                emit("b " + exitLabel);
+        } else {
+            var abort = (Abort) instruction;
+            if (abort.kind != Abort.Kind.CASE_NO_MATCH) {
+                emit("la $a0 " + abort.fileName);
+                emit("li $t1 " + abort.line);
+                emit(abort.kind == Abort.Kind.CASE_VOID ? "jal _case_abort2" : "jal _dispatch_abort");
+            } else {
+                var value = read(abort.value, "$a0");
+                if (!value.equals("$a0"))
+                    emit("move $a0 " + value);
+                emit("jal _case_abort");
+            }
+        }
+    }
+
+    private void jump(BasicBlock target) {
+        if (target != next)
+            emit("b " + target.label);
+    }
+
+    private static CompareBranch.Op negate(CompareBranch.Op op) {
+        switch (op) {
+            case LT: return CompareBranch.Op.GE;
+            case LE: return CompareBranch.Op.GT;
+            case GT: return CompareBranch.Op.LE;
+            case GE: return CompareBranch.Op.LT;
+            case EQ: return CompareBranch.Op.NE;
+            default: return CompareBranch.Op.EQ;
+        }
+    }
+
+    private static String compareBranch(CompareBranch.Op op) {
+        switch (op) {
+            case LT: return "blt";
+            case LE: return "ble";
+            case GT: return "bgt";
+            case GE: return "bge";
+            case EQ: return "beq";
+            default: return "bne";
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package cool.compiler;
+
+import cool.structures.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binds every identifier in method bodies and attribute initializers to the
+ * symbol it names, and gives each attribute its slot in the object and each
+ * formal parameter its position.
+ *
+ * Runs at the end of the definition pass, once the class hierarchy is known.
+ * The formals and locals in scope are kept on a single array, so nested let
+ * and case expressions allocate no scopes, and the later passes read the
+ * bindings off the AST instead of looking names up.
+ */
+public class NameBindingVisitor implements ASTVisitor<Void> {
+    private final SymbolTable symbolTable;
+
+    // Attributes visible in the current class, by name.
+    private Map<String, IdSymbol> attributes;
+
+    // Formals and locals in scope, innermost last. scopeStarts[d] is the
+    // index of the first one declared by the scope at nesting depth d.
+    private IdSymbol[] variables = new IdSymbol[16];
+    private int variableCount;
+    private int[] scopeStarts = new int[16];
+    private int scopeDepth;
+
+    public NameBindingVisitor(SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+    }
+
+    // Attribute slots follow those of the superclass; formal slots are the
+    // positions of the parameters.
+    private void assignSlots() {
+        var hierarchy = symbolTable.hierarchy;
+        for (var classSymbol : hierarchy.getClasses()) {
+            var parent = hierarchy.getParent(classSymbol);
+            int slot = parent == null ? 0 : parent.attributeCount;
+            for (var sym : classSymbol.attributesScope.getSymbols()) {
+                var attribute = (IdSymbol) sym;
+                attribute.storage = IdSymbol.Storage.ATTRIBUTE;
+                attribute.slot = slot++;
+            }
+            classSymbol.attributeCount = slot;
+
+            for (var sym : classSymbol.methodsScope.getSymbols()) {
+                int index = 0;
+                for (var formal : ((MethodSymbol) sym).getFormals().values()) {
+                    ((IdSymbol) formal).storage = IdSymbol.Storage.FORMAL;
+                    ((IdSymbol) formal).slot = index++;
+                }
+            }
+        }
+    }
+
+    // Own attributes hide inherited ones of the same name.
+    private Map<String, IdSymbol> visibleAttributes(TypeSymbol classSymbol) {
+        var visible = new HashMap<String, IdSymbol>();
+        for (var type = classSymbol; type != null; type = symbolTable.hierarchy.getParent(type))
+            for (var sym : type.attributesScope.getSymbols())
+                visible.putIfAbsent(sym.getName(), (IdSymbol) sym);
+        return visible;
+    }
+
+    private void openScope() {
+        if (scopeDepth == scopeStarts.length)
+            scopeStarts = Arrays.copyOf(scopeStarts, 2 * scopeDepth);
+        scopeStarts[scopeDepth++] = variableCount;
+    }
+
+    private void closeScope() {
+        variableCount = scopeStarts[--scopeDepth];
+    }
+
+    // Lookups go from the innermost variable out, so a later local hides an
+    // earlier one of the same name, even in the same scope.
+    private void declare(IdSymbol sym) {
+        if (variableCount == variables.length)
+            variables = Arrays.copyOf(variables, 2 * variableCount);
+        variables[variableCount++] = sym;
+    }
+
+    private IdSymbol newLocal(String name, String type) {
+        var sym = new IdSymbol(name);
+        sym.type = type;
+        sym.typeSymbol = (TypeSymbol) symbolTable.globals.lookup(type);
+        sym.storage = IdSymbol.Storage.LOCAL;
+        return sym;
+    }
+
+    private IdSymbol lookup(String name) {
+        for (int i = variableCount - 1; i >= 0; i--)
+            if (variables[i].getName().equals(name))
+                return variables[i];
+        return attributes.get(name);
+    }
+
+    @Override
+    public Void visit(Program program) {
+        assignSlots();
+        for (var cl : program.classes) {
+            cl.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(ClassNode classNode) {
+        // The first definition wins when a class is redefined.
+        var classSymbol = (TypeSymbol) symbolTable.globals.lookup(classNode.id);
+        attributes = visibleAttributes(classSymbol);
+
+        for (var feat : classNode.features) {
+            feat.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Attribute attribute) {
+        if (attribute.init != null)
+            attribute.init.accept(this);
+        return null;
+    }
+
+    // Rejects duplicates in the same scope, like DefaultScope; only formals
+    // may not share a name.
+    private void declareFormal(IdSymbol sym) {
+        for (int i = scopeStarts[scopeDepth - 1]; i < variableCount; i++)
+            if (variables[i].getName().equals(sym.getName()))
+                return;
+        declare(sym);
+    }
+
+    @Override
+    public Void visit(Method method) {
+        openScope();
+        for (var formal : ((MethodSymbol) method.scope).getFormals().values())
+            declareFormal((IdSymbol) formal);
+        method.body.accept(this);
+        closeScope();
+        return null;
+    }
+
+    @Override
+    public Void visit(Formal formal) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Let let) {
+        openScope();
+        for (var local : let.locals) {
+            // The initializer only sees the previous locals, and the local
+            // hides any of them with its name, as in nested lets.
+            if (local.init != null)
+                local.init.accept(this);
+            local.symbol = newLocal(local.name, local.type);
+            declare(local.symbol);
+        }
+        let.body.accept(this);
+        closeScope();
+        return null;
+    }
+
+    @Override
+    public Void visit(Local local) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Case caseNode) {
+        caseNode.expr.accept(this);
+        for (var branch : caseNode.branches) {
+            branch.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(CaseBranch caseBranch) {
+        openScope();
+        caseBranch.symbol = newLocal(caseBranch.name, caseBranch.type);
+        declare(caseBranch.symbol);
+        caseBranch.body.accept(this);
+        closeScope();
+        return null;
+    }
+
+    @Override
+    public Void visit(Variable variable) {
+        if (!variable.name.equals("self"))
+            variable.symbol = lookup(variable.name);
+        return null;
+    }
+
+    @Override
+    public Void visit(Assignment assignment) {
+        assignment.var.accept(this);
+        if (assignment.var.symbol != null)
+            assignment.var.symbol.assigned = true;
+        assignment.expr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(Literal literal) {
+        return null;
+    }
+
+    @Override
+    public Void visit(BinaryOp binaryOp) {
+        binaryOp.operand1.accept(this);
+        binaryOp.operand2.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(IntNeg intNeg) {
+        intNeg.operand.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(BoolNeg boolNeg) {
+        boolNeg.operand.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(isVoid isVoid) {
+        isVoid.operand.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(NewOp newOp) {
+        return null;
+    }
+
+    @Override
+    public Void visit(ExplDispatch explDispatch) {
+        explDispatch.object.accept(this);
+        for (var param : explDispatch.params) {
+            param.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(ImplDispatch implDispatch) {
+        for (var param : implDispatch.params) {
+            param.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(Decision decision) {
+        decision.cond.accept(this);
+        decision.thenExpr.accept(this);
+        decision.elseExpr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(Loop loop) {
+        loop.cond.accept(this);
+        loop.body.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(Block block) {
+        for (var expr : block.expressions) {
+            expr.accept(this);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,295 @@
+package cool.compiler;
+
+import cool.structures.MethodSymbol;
+import cool.structures.SymbolTable;
+import cool.structures.TypeSymbol;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the classes and methods a correct program can use, by rapid type
+ * analysis (Bacon and Sweeney) starting from Main.main.
+ *
+ * A class is instantiated once a reachable expression creates it, and its
+ * initializer then runs the attribute initializers of the class and of its
+ * ancestors. A dispatch reaches, in every instantiated subclass of the
+ * static type of its receiver, the method in the slot it calls; a static
+ * dispatch reaches only the method it names. The basic classes are always
+ * kept, since the runtime creates Ints, Strings and Bools itself.
+ *
+ * A class named by a static dispatch but never instantiated, nor inherited
+ * by an instantiated class, only needs its dispatch table: the receiver of
+ * such a dispatch can only be void.
+ */
+public class ReachabilityVisitor implements ASTVisitor<Void> {
+    private final SymbolTable symbolTable;
+
+    // AST of the user classes and of their methods.
+    private final Map<TypeSymbol, ClassNode> classNodes = new HashMap<>();
+    private final Map<MethodSymbol, Method> methods = new HashMap<>();
+
+    private final Set<TypeSymbol> instantiated = new HashSet<>();
+    // Classes whose attribute initializers have been visited.
+    private final Set<TypeSymbol> initialized = new HashSet<>();
+    private final Set<MethodSymbol> reached = new HashSet<>();
+    // Slots dispatched to, by the static type of the receiver.
+    private final Map<TypeSymbol, Set<Integer>> dispatched = new HashMap<>();
+    private final Set<TypeSymbol> kept = new HashSet<>();
+    // Classes whose dispatch table a static dispatch reads.
+    private final Set<TypeSymbol> staticTargets = new HashSet<>();
+
+    // Expressions still to visit, each with the class it appears in.
+    private final ArrayDeque<Expression> pending = new ArrayDeque<>();
+    private final ArrayDeque<TypeSymbol> pendingClasses = new ArrayDeque<>();
+    private TypeSymbol currentClass;
+
+    public ReachabilityVisitor(SymbolTable symbolTable) {
+        this.symbolTable = symbolTable;
+    }
+
+    // Whether the code generator should emit the prototype, dispatch table
+    // and initializer of the class.
+    public boolean keeps(TypeSymbol classSymbol) {
+        return kept.contains(classSymbol);
+    }
+
+    // Whether the code generator should emit at least the dispatch table of
+    // the class.
+    public boolean keepsDispatchTable(TypeSymbol classSymbol) {
+        return kept.contains(classSymbol) || staticTargets.contains(classSymbol);
+    }
+
+    public boolean instantiates(TypeSymbol classSymbol) {
+        return instantiated.contains(classSymbol);
+    }
+
+    public boolean reaches(MethodSymbol methodSymbol) {
+        return reached.contains(methodSymbol);
+    }
+
+    private void schedule(Expression expr, TypeSymbol classSymbol) {
+        pending.push(expr);
+        pendingClasses.push(classSymbol);
+    }
+
+    private void instantiate(TypeSymbol classSymbol) {
+        if (!instantiated.add(classSymbol))
+            return;
+        for (var type = classSymbol; type != null; type = symbolTable.hierarchy.getParent(type)) {
+            if (!initialized.add(type) || !classNodes.containsKey(type))
+                continue;
+            for (var feat : classNodes.get(type).features)
+                if (feat instanceof Attribute && ((Attribute) feat).init != null)
+                    schedule(((Attribute) feat).init, type);
+        }
+        dispatched.forEach((type, slots) -> {
+            if (symbolTable.hierarchy.isSubClass(type, classSymbol))
+                for (var slot : slots)
+                    reach(classSymbol.dispatchTable.get(slot));
+        });
+    }
+
+    private void dispatch(TypeSymbol type, MethodSymbol methodSymbol) {
+        if (!dispatched.computeIfAbsent(type, t -> new HashSet<>()).add(methodSymbol.dispatchSlot))
+            return;
+        for (var classSymbol : List.copyOf(instantiated))
+            if (symbolTable.hierarchy.isSubClass(type, classSymbol))
+                reach(classSymbol.dispatchTable.get(methodSymbol.dispatchSlot));
+    }
+
+    private void reach(MethodSymbol methodSymbol) {
+        if (reached.add(methodSymbol) && methods.containsKey(methodSymbol))
+            schedule(methods.get(methodSymbol).body, methodSymbol.getDefiningClass());
+    }
+
+    private TypeSymbol staticType(Expression expr) {
+        return expr.staticType == symbolTable.selfType ? currentClass : expr.staticType;
+    }
+
+    @Override
+    public Void visit(Program program) {
+        for (var cl : program.classes) {
+            classNodes.putIfAbsent(cl.symbol, cl);
+            for (var feat : cl.features)
+                if (feat instanceof Method)
+                    methods.put((MethodSymbol) ((Method) feat).scope, (Method) feat);
+        }
+
+        for (var basic : List.of(symbolTable.intType, symbolTable.stringType, symbolTable.boolType))
+            instantiate(basic);
+        // The definition pass made sure that both are defined.
+        var mainClass = (TypeSymbol) symbolTable.globals.lookup("Main");
+        instantiate(mainClass);
+        reach(symbolTable.getMethod(mainClass, "main"));
+
+        while (!pending.isEmpty()) {
+            currentClass = pendingClasses.pop();
+            pending.pop().accept(this);
+        }
+
+        kept.addAll(List.of(symbolTable.objectType, symbolTable.ioType, symbolTable.intType,
+                symbolTable.stringType, symbolTable.boolType));
+        for (var classSymbol : instantiated)
+            for (var type = classSymbol; type != null; type = symbolTable.hierarchy.getParent(type))
+                kept.add(type);
+        return null;
+    }
+
+    @Override
+    public Void visit(ClassNode classNode) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Attribute attribute) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Method method) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Formal formal) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Literal literal) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Assignment assignment) {
+        assignment.expr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(Variable variable) {
+        return null;
+    }
+
+    @Override
+    public Void visit(IntNeg intNeg) {
+        intNeg.operand.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(BoolNeg boolNeg) {
+        boolNeg.operand.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(isVoid isVoid) {
+        isVoid.operand.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(ExplDispatch explDispatch) {
+        for (var param : explDispatch.params)
+            param.accept(this);
+        explDispatch.object.accept(this);
+        if (explDispatch.static_method != null) {
+            // The dispatch table of the class is read directly.
+            staticTargets.add((TypeSymbol) symbolTable.globals.lookup(explDispatch.static_method));
+            reach(explDispatch.methodSymbol);
+        } else {
+            dispatch(staticType(explDispatch.object), explDispatch.methodSymbol);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visit(ImplDispatch implDispatch) {
+        for (var param : implDispatch.params)
+            param.accept(this);
+        dispatch(currentClass, implDispatch.methodSymbol);
+        return null;
+    }
+
+    @Override
+    public Void visit(Decision decision) {
+        decision.cond.accept(this);
+        var cond = boolLiteral(decision.cond);
+        if (cond != Boolean.FALSE)
+            decision.thenExpr.accept(this);
+        if (cond != Boolean.TRUE)
+            decision.elseExpr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(Loop loop) {
+        loop.cond.accept(this);
+        if (boolLiteral(loop.cond) != Boolean.FALSE)
+            loop.body.accept(this);
+        return null;
+    }
+
+    // The value of a true or false literal, null for any other expression;
+    // the branch not taken is left out, as the code generator folds it.
+    private static Boolean boolLiteral(Expression expr) {
+        if (!(expr instanceof Literal) || ((Literal) expr).type != Literal.LiteralType.BOOL)
+            return null;
+        return ((Literal) expr).val.equals("true");
+    }
+
+    @Override
+    public Void visit(Let let) {
+        for (var local : let.locals)
+            if (local.init != null)
+                local.init.accept(this);
+        let.body.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(Local local) {
+        return null;
+    }
+
+    @Override
+    public Void visit(Block block) {
+        for (var expr : block.expressions)
+            expr.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(Case caseNode) {
+        caseNode.expr.accept(this);
+        for (var branch : caseNode.branches)
+            branch.body.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(CaseBranch caseBranch) {
+        return null;
+    }
+
+    @Override
+    public Void visit(BinaryOp binaryOp) {
+        binaryOp.operand1.accept(this);
+        binaryOp.operand2.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visit(NewOp newOp) {
+        // new SELF_TYPE makes an object of a class that already has one.
+        if (!newOp.type.equals("SELF_TYPE"))
+            instantiate((TypeSymbol) symbolTable.globals.lookup(newOp.type));
+        return null;
+    }
+}
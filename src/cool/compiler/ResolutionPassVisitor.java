@@ -1,56 +1,102 @@
 package cool.compiler;
 
-import cool.parser.CoolParser;
 import cool.structures.*;
-import org.antlr.v4.runtime.Token;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
 
 public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
-
-    public Scope currentScope;
     public MethodSymbol currentMethod;
     public TypeSymbol currentClass;
+    private final SymbolTable symbolTable;
+    private final Diagnostics diagnostics;
 
+    // Check the classes of the program in parallel, each with its own visitor.
+    private final boolean parallel;
 
-    MethodSymbol getOverriden(TypeSymbol classSymbol,MethodSymbol methodSymbol) {
+    // What checking each class took on its worker thread, for --stats, if
+    // checked in parallel and measured; null otherwise.
+    private final List<CompilationStats.Measure> taskMeasures;
 
-        while (classSymbol.superClass != null) {
-            classSymbol = (TypeSymbol) SymbolTable.globals.lookup(classSymbol.superClass);
-            MethodSymbol overridenMethodSym = (MethodSymbol) classSymbol.methodsScope.lookup(methodSymbol.getName());
-            if (overridenMethodSym != null)
-                return overridenMethodSym;
-        }
-        return null;
+    // Where the errors of the class being checked go, so that they are
+    // printed after those of the classes before it, or null to report them
+    // as they are found.
+    private final Diagnostics.Group errors;
+
+    public ResolutionPassVisitor(CompilationContext context) {
+        this(context, false);
+    }
+
+    public ResolutionPassVisitor(CompilationContext context, boolean parallel) {
+        this(context, parallel, false);
+    }
+
+    // Classes checked in parallel are measured one by one if measured.
+    public ResolutionPassVisitor(CompilationContext context, boolean parallel, boolean measured) {
+        symbolTable = context.symbolTable;
+        diagnostics = context.diagnostics;
+        this.parallel = parallel;
+        taskMeasures = parallel && measured ? Collections.synchronizedList(new ArrayList<>()) : null;
+        errors = null;
+    }
+
+    // Visitor of a single class, on behalf of a parallel one.
+    private ResolutionPassVisitor(ResolutionPassVisitor parent, Diagnostics.Group errors) {
+        symbolTable = parent.symbolTable;
+        diagnostics = parent.diagnostics;
+        parallel = false;
+        taskMeasures = null;
+        this.errors = errors;
+    }
+
+    private void error(ASTNode node, long position, String str) {
+        if (errors == null)
+            symbolTable.error(node.file, position, str);
+        else
+            errors.report(symbolTable.semanticError(node.file, position, str));
+    }
+
+
+    // Checks an expression and records its type on it, for code generation.
+    private TypeSymbol typeOf(Expression expr) {
+        var type = expr.accept(this);
+        expr.staticType = type;
+        return type;
+    }
+
+    MethodSymbol getOverriden(TypeSymbol classSymbol,MethodSymbol methodSymbol) {
+        var parent = symbolTable.hierarchy.getParent(classSymbol);
+        if (parent == null)
+            return null;
+        return symbolTable.getMethod(parent, methodSymbol.getName());
     }
 
     @Override
     public TypeSymbol visit(Method method) {
         currentMethod = (MethodSymbol) method.scope;
-        currentMethod.setParent(currentClass);
-        TypeSymbol typeSymbol = (TypeSymbol) SymbolTable.globals.lookup(method.type);
+        TypeSymbol typeSymbol = (TypeSymbol) symbolTable.globals.lookup(method.type);
         if (typeSymbol == null) {
             String err = "Class " + currentClass.getName() + " has method "
                     + method.name + " with undefined return type " + method.type;
-            SymbolTable.error(method.ctx, ((CoolParser.MethodContext) method.ctx).type, err);
+            error(method, method.typePosition, err);
         }
-        currentMethod.type = method.type;
-        currentScope = currentMethod;
         for (var formal : method.formals) {
             if (formal.name.equals("self")) {
                 String err = "Method "+ method.name+ " of class " + currentClass.getName() + " has formal parameter with illegal name self";
-                SymbolTable.error(formal.ctx, ((CoolParser.FormalContext)formal.ctx).name,err);
+                error(formal, formal.namePosition,err);
             }
             if (formal.type.equals("SELF_TYPE")) {
                 String err = "Method "+ method.name+ " of class " + currentClass.getName() + " has formal parameter "
                         + formal.name + " with illegal type SELF_TYPE";
-                SymbolTable.error(formal.ctx, ((CoolParser.FormalContext)formal.ctx).type,err);
+                error(formal, formal.typePosition,err);
             }
 
-            var typeSym = SymbolTable.globals.lookup(formal.type);
+            var typeSym = symbolTable.globals.lookup(formal.type);
             if (typeSym == null) {
                 String err = "Method " + method.name + " of class " + currentClass.getName() + " has formal parameter " + formal.name + " with undefined type " + formal.type;
-                SymbolTable.error(formal.ctx, ((CoolParser.FormalContext)formal.ctx).type,err);
+                error(formal, formal.typePosition,err);
             }
         }
 
@@ -59,11 +105,11 @@ public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
             if (!currentMethod.type.equals(overridenMethod.type)) {
                 String err = "Class "+ currentClass.getName() + " overrides method " + method.name + " but changes return type from "
                         + overridenMethod.type + " to " +currentMethod.type;
-                SymbolTable.error(method.ctx, ((CoolParser.MethodContext)method.ctx).type,err);
+                error(method, method.typePosition,err);
             }
             if (currentMethod.getFormals().size() != overridenMethod.getFormals().size()) {
                 String err = "Class "+ currentClass.getName() + " overrides method " + method.name + " with different number of formal parameters";
-                SymbolTable.error(method.ctx, ((CoolParser.MethodContext)method.ctx).name,err);
+                error(method, method.namePosition,err);
             }
             else {
                 var iterCurrent = currentMethod.getFormals().values().iterator();
@@ -76,24 +122,23 @@ public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
                     if (!overSym.type.equals(thisSym.type)) {
                         String err = "Class "+currentClass.getName()+" overrides method "+currentMethod.getName()+" but changes type of formal parameter " +
                                 thisSym.getName() + " from " + overSym.type + " to " + thisSym.type;
-                        CoolParser.FormalContext ctxt = (CoolParser.FormalContext) method.formals.get(i).ctx;
-                        SymbolTable.error(method.ctx, ctxt.type,err);
+                        error(method, method.formals.get(i).typePosition, err);
                     }
                     i++;
                 }
             }
         }
 
-        TypeSymbol bodyType = method.body.accept(this);
-        if (bodyType == TypeSymbol.SELFTYPE && typeSymbol != TypeSymbol.SELFTYPE)
+        TypeSymbol bodyType = typeOf(method.body);
+        if (bodyType == symbolTable.selfType && typeSymbol != symbolTable.selfType)
             bodyType = currentClass;
-//        if (typeSymbol == TypeSymbol.SELFTYPE)
+//        if (typeSymbol == symbolTable.selfType)
 //            typeSymbol = currentClass;
 
         if (bodyType != null && !isSubClass(typeSymbol,bodyType)) {
             String err = "Type " + bodyType.getName() + " of the body of method " + method.name +
                     " is incompatible with declared return type " + method.type;
-            SymbolTable.error(method.ctx, ((CoolParser.MethodContext)method.ctx).body.start,err);
+            error(method, method.body.outerStart,err);
         }
         return typeSymbol;
     }
@@ -105,9 +150,8 @@ public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
 
     boolean checkRedefine(TypeSymbol classSymbol,String attrName) {
 
-        while (classSymbol.superClass != null) {
-            classSymbol = (TypeSymbol) SymbolTable.globals.lookup(classSymbol.superClass);
-            if (classSymbol.lookup(attrName) != null) {
+        while ((classSymbol = symbolTable.hierarchy.getParent(classSymbol)) != null) {
+            if (classSymbol.attributesScope.lookupLocal(attrName) != null) {
                 return true;
             }
         }
@@ -118,71 +162,50 @@ public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
     public TypeSymbol visit(Attribute attribute) {
         if (attribute.hasErr)
             return null;
-        TypeSymbol attrType = (TypeSymbol) SymbolTable.globals.lookup(attribute.type);
+        TypeSymbol attrType = (TypeSymbol) symbolTable.globals.lookup(attribute.type);
         if (checkRedefine(currentClass, attribute.name)) {
             String err = "Class "+currentClass.getName()+" redefines inherited attribute " + attribute.name;
-            SymbolTable.error(attribute.ctx, ((CoolParser.Class_varContext) attribute.ctx).var_decl().name, err);
+            error(attribute, attribute.namePosition, err);
         }
         else if (attrType == null) {
             String err = "Class " + currentClass.getName() + " has attribute " + attribute.name +
                     " with undefined type " + attribute.type;
-            SymbolTable.error(attribute.ctx, ((CoolParser.Class_varContext) attribute.ctx).var_decl().type, err);
+            error(attribute, attribute.typePosition, err);
         }
         else if (attribute.init != null) {
-            TypeSymbol initType = attribute.init.accept(this);
+            TypeSymbol initType = typeOf(attribute.init);
             if (initType != null && !isSubClass(attrType,initType)) {
                 String err = "Type " + initType.getName() + " of initialization expression of attribute " +
                         attribute.name + " is incompatible with declared type " + attrType.getName();
-                SymbolTable.error(attribute.ctx, attribute.init.ctx.start, err);
+                error(attribute, attribute.init.start, err);
             }
         }
         return null;
     }
 
-    boolean checkCycle(TypeSymbol classSymbol) {
-        String name = classSymbol.getName();
-
-        while (classSymbol.superClass != null) {
-            if (name.equals(classSymbol.superClass)) {
-                return true;
-            }
-            classSymbol = (TypeSymbol) SymbolTable.globals.lookup(classSymbol.superClass);
-            if (classSymbol == null)
-                return false;
-        }
-        return false;
-
-    }
     @Override
     public TypeSymbol visit(ClassNode classNode) {
-        TypeSymbol classType = (TypeSymbol) SymbolTable.globals.lookup(classNode.id);
+        TypeSymbol classType = (TypeSymbol) symbolTable.globals.lookup(classNode.id);
         currentClass = classType;
-        currentScope = currentClass;
         if(classNode.parent != null) {
-            TypeSymbol parentType = (TypeSymbol) SymbolTable.globals.lookup(classNode.parent);
+            TypeSymbol parentType = (TypeSymbol) symbolTable.globals.lookup(classNode.parent);
             if (classNode.parent.equals("Int") ||
                 classNode.parent.equals("String") ||
                 classNode.parent.equals("Bool")  ||
                 classNode.parent.equals("SELF_TYPE")) {
 
                 String err = "Class "+classNode.id+" has illegal parent "+classNode.parent;
-                SymbolTable.error(classNode.ctx, ((CoolParser.ClassContext) classNode.ctx).parent, err);
+                error(classNode, classNode.parentPosition, err);
             }
             if (parentType == null) {
                 String err = "Class "+classNode.id+" has undefined parent "+classNode.parent;
-                SymbolTable.error(classNode.ctx, ((CoolParser.ClassContext) classNode.ctx).parent, err);
+                error(classNode, classNode.parentPosition, err);
             }
-            else {
-                currentClass.attributesScope.setParent(parentType.attributesScope);
-                if (checkCycle(classType)) {
-                    String err = "Inheritance cycle for class "+classNode.id;
-                    SymbolTable.error(classNode.ctx, ((CoolParser.ClassContext) classNode.ctx).type, err);
-                }
+            else if (symbolTable.hierarchy.isInCycle(classType)) {
+                String err = "Inheritance cycle for class "+classNode.id;
+                error(classNode, classNode.typePosition, err);
             }
         }
-        else {
-            classType.superClass = "Object";
-        }
         for (var feat : classNode.features) {
             feat.accept(this);
         }
@@ -193,13 +216,13 @@ public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
     public TypeSymbol visit(Literal literal) {
         switch (literal.type) {
             case STRING -> {
-                return TypeSymbol.STRING;
+                return symbolTable.stringType;
             }
             case BOOL -> {
-                return TypeSymbol.BOOL;
+                return symbolTable.boolType;
             }
             case INT -> {
-                return TypeSymbol.INT;
+                return symbolTable.intType;
             }
         }
         return null;
@@ -209,24 +232,24 @@ public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
     public TypeSymbol visit(Assignment assignment) {
         if (assignment.var.name.equals("self")) {
             String err = "Cannot assign to self";
-            SymbolTable.error(assignment.ctx, ((CoolParser.AssignmentContext) assignment.ctx).name, err);
+            error(assignment, assignment.start, err);
             return null;
         }
-        TypeSymbol varType = assignment.var.accept(this);
-        TypeSymbol assignedType = assignment.expr.accept(this);
+        TypeSymbol varType = typeOf(assignment.var);
+        TypeSymbol assignedType = typeOf(assignment.expr);
 
 
         if (varType != null && assignedType != null) {
             String assignedStr = assignedType.getName();
             String varStr = varType.getName();
-            if (assignedType == TypeSymbol.SELFTYPE)
+            if (assignedType == symbolTable.selfType)
                 assignedType = currentClass;
-            if (varType == TypeSymbol.SELFTYPE)
+            if (varType == symbolTable.selfType)
                 varType = currentClass;
             if (!isSubClass(varType,assignedType)) {
                 String err = "Type " + assignedStr+ " of assigned expression is incompatible with declared type "
                         + varStr + " of identifier " + assignment.var.name;
-                SymbolTable.error(assignment.ctx, ((CoolParser.AssignmentContext) assignment.ctx).expr().start, err);
+                error(assignment, assignment.expr.outerStart, err);
                 return null;
             }
             return assignedType;
@@ -237,38 +260,37 @@ public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
     @Override
     public TypeSymbol visit(Variable variable) {
         if (variable.name.equals("self")) {
-            return TypeSymbol.SELFTYPE;
+            return symbolTable.selfType;
         }
-        IdSymbol id = (IdSymbol) currentScope.lookup(variable.name);
+        IdSymbol id = variable.symbol;
         if (id == null) {
             String err = "Undefined identifier " + variable.name;
-            SymbolTable.error(variable.ctx, variable.ctx.start, err);
+            error(variable, variable.start, err);
             return null;
         }
-        var varType = (TypeSymbol) SymbolTable.globals.lookup(id.type);
-        return  varType;
+        return id.typeSymbol;
     }
 
     @Override
     public TypeSymbol visit(BinaryOp binaryOp) {
         TypeSymbol retType;
         if (binaryOp.op.equals("<") || binaryOp.op.equals("=") || binaryOp.op.equals("<="))
-            retType = TypeSymbol.BOOL;
+            retType = symbolTable.boolType;
         else
-            retType = TypeSymbol.INT;
+            retType = symbolTable.intType;
 
-        TypeSymbol typeOperand1 = binaryOp.operand1.accept(this);
-        TypeSymbol typeOperand2 = binaryOp.operand2.accept(this);
+        TypeSymbol typeOperand1 = typeOf(binaryOp.operand1);
+        TypeSymbol typeOperand2 = typeOf(binaryOp.operand2);
         if (binaryOp.op.equals("=")) {
             if (typeOperand1 != null && typeOperand2 != null) {
-                if (typeOperand1.equals(TypeSymbol.INT) || typeOperand1.equals(TypeSymbol.STRING) || typeOperand1.equals(TypeSymbol.BOOL) ||
-                    typeOperand2.equals(TypeSymbol.INT) || typeOperand2.equals(TypeSymbol.STRING) || typeOperand2.equals(TypeSymbol.BOOL)) {
+                if (typeOperand1.equals(symbolTable.intType) || typeOperand1.equals(symbolTable.stringType) || typeOperand1.equals(symbolTable.boolType) ||
+                    typeOperand2.equals(symbolTable.intType) || typeOperand2.equals(symbolTable.stringType) || typeOperand2.equals(symbolTable.boolType)) {
                     if (typeOperand1 == typeOperand2) {
                         return retType;
                     }
                     else {
                         String err = "Cannot compare "+ typeOperand1.getName() +" with "+ typeOperand2.getName();
-                        SymbolTable.error(binaryOp.ctx, binaryOp.opToken, err);
+                        error(binaryOp, binaryOp.opPosition, err);
                         return null;
                     }
                 }
@@ -276,14 +298,14 @@ public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
             return retType;
         }
         boolean flag = true;
-        if(typeOperand1 != null && typeOperand1 != TypeSymbol.INT) {
+        if(typeOperand1 != null && typeOperand1 != symbolTable.intType) {
             String err = "Operand of " + binaryOp.op +" has type "+ typeOperand1.getName() + " instead of Int";
-            SymbolTable.error(binaryOp.ctx, binaryOp.leftToken, err);
+            error(binaryOp, binaryOp.operand1.outerStart, err);
             flag = false;
         }
-        if(typeOperand2 != null && typeOperand2 != TypeSymbol.INT) {
+        if(typeOperand2 != null && typeOperand2 != symbolTable.intType) {
             String err = "Operand of " + binaryOp.op +" has type "+ typeOperand2.getName() + " instead of Int";
-            SymbolTable.error(binaryOp.ctx, binaryOp.rightToken, err);
+            error(binaryOp, binaryOp.operand2.outerStart, err);
             flag = false;
         }
         if (flag) {
@@ -294,32 +316,32 @@ public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
 
     @Override
     public TypeSymbol visit(IntNeg intNeg) {
-        TypeSymbol typeOperand = intNeg.operand.accept(this);
-        if (typeOperand != null && typeOperand != TypeSymbol.INT) {
+        TypeSymbol typeOperand = typeOf(intNeg.operand);
+        if (typeOperand != null && typeOperand != symbolTable.intType) {
             String err = "Operand of " + intNeg.op +" has type "+ typeOperand.getName() + " instead of Int";
-            SymbolTable.error(intNeg.ctx, ((CoolParser.ComplContext)intNeg.ctx).e.start, err);
+            error(intNeg, intNeg.operand.outerStart, err);
             return null;
         }
-        return TypeSymbol.INT;
+        return symbolTable.intType;
     }
 
     @Override
     public TypeSymbol visit(BoolNeg boolNeg) {
-        TypeSymbol typeOperand = boolNeg.operand.accept(this);
-        if (typeOperand != null && typeOperand != TypeSymbol.BOOL) {
+        TypeSymbol typeOperand = typeOf(boolNeg.operand);
+        if (typeOperand != null && typeOperand != symbolTable.boolType) {
             String err = "Operand of " + boolNeg.op +" has type "+ typeOperand.getName() + " instead of Bool";
-            SymbolTable.error(boolNeg.ctx, ((CoolParser.NotContext)boolNeg.ctx).e.start, err);
+            error(boolNeg, boolNeg.operand.outerStart, err);
             return null;
         }
-        return TypeSymbol.BOOL;
+        return symbolTable.boolType;
     }
 
     @Override
     public TypeSymbol visit(NewOp newOp) {
-        TypeSymbol type = (TypeSymbol) SymbolTable.globals.lookup(newOp.type);
+        TypeSymbol type = (TypeSymbol) symbolTable.globals.lookup(newOp.type);
         if (type == null) {
             String err = "new is used with undefined type "+newOp.type;
-            SymbolTable.error(newOp.ctx, ((CoolParser.NewContext) newOp.ctx).type, err);
+            error(newOp, newOp.typePosition, err);
             return null;
         }
         return type;
@@ -327,81 +349,77 @@ public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
 
     @Override
     public TypeSymbol visit(isVoid isVoid) {
-        return TypeSymbol.BOOL;
+        return symbolTable.boolType;
     }
 
     @Override
     public TypeSymbol visit(ExplDispatch explDispatch) {
-        TypeSymbol objType = explDispatch.object.accept(this);
+        TypeSymbol objType = typeOf(explDispatch.object);
         if (objType == null) {
             return null;
         }
-        if (objType == TypeSymbol.SELFTYPE)
+        if (objType == symbolTable.selfType)
             objType = currentClass;
         MethodSymbol methodSymbol = null;
         if (explDispatch.static_method != null) {
             if (explDispatch.static_method.equals("SELF_TYPE")) {
                 String err = "Type of static dispatch cannot be SELF_TYPE";
-                SymbolTable.error(explDispatch.ctx, ((CoolParser.ExpldispatchContext)explDispatch.ctx).static_method, err);
+                error(explDispatch, explDispatch.staticMethodPosition, err);
                 return null;
             }
-            TypeSymbol staticType = (TypeSymbol) SymbolTable.globals.lookup(explDispatch.static_method);
+            TypeSymbol staticType = (TypeSymbol) symbolTable.globals.lookup(explDispatch.static_method);
             if(staticType == null){
                 String err = "Type " + explDispatch.static_method + " of static dispatch is undefined";
-                SymbolTable.error(explDispatch.ctx, ((CoolParser.ExpldispatchContext)explDispatch.ctx).static_method, err);
+                error(explDispatch, explDispatch.staticMethodPosition, err);
                 return null;
             }
-            methodSymbol = (MethodSymbol) staticType.methodsScope.lookup(explDispatch.method);
+            methodSymbol = symbolTable.getMethod(staticType, explDispatch.method);
             if (methodSymbol == null) {
                 String err = "Undefined method " + explDispatch.method + " in class " + explDispatch.static_method;
-                SymbolTable.error(explDispatch.ctx, ((CoolParser.ExpldispatchContext) explDispatch.ctx).name, err);
+                error(explDispatch, explDispatch.namePosition, err);
                 return null;
             }
             if (!isSubClass(staticType, objType)) {
                 String err = "Type " + explDispatch.static_method + " of static dispatch is not a superclass of type " + objType.getName();
-                SymbolTable.error(explDispatch.ctx, ((CoolParser.ExpldispatchContext) explDispatch.ctx).static_method, err);
+                error(explDispatch, explDispatch.staticMethodPosition, err);
                 return null;
             }
         }
         else {
-            methodSymbol = SymbolTable.getMethod(objType, explDispatch.method);
+            methodSymbol = symbolTable.getMethod(objType, explDispatch.method);
         }
 
         if (methodSymbol == null) {
             String err = "Undefined method " + explDispatch.method + " in class " + objType.getName();
-            SymbolTable.error(explDispatch.ctx, ((CoolParser.ExpldispatchContext) explDispatch.ctx).name, err);
+            error(explDispatch, explDispatch.namePosition, err);
             return null;
         }
+        explDispatch.methodSymbol = methodSymbol;
         if (explDispatch.params.size() != methodSymbol.getFormals().size()) {
             String err = "Method "+explDispatch.method+" of class "+objType.getName()+" is applied to wrong number of arguments";
-            SymbolTable.error(explDispatch.ctx, ((CoolParser.ExpldispatchContext) explDispatch.ctx).name, err);
+            error(explDispatch, explDispatch.namePosition, err);
             return null;
         }
         var formalIter = methodSymbol.getFormals().values().iterator();
         var argsIter = explDispatch.params.iterator();
-        var tokenIter = explDispatch.paramtokens.iterator();
         while (formalIter.hasNext()) {
-            TypeSymbol passedType = argsIter.next().accept(this);
+            var arg = argsIter.next();
+            TypeSymbol passedType = typeOf(arg);
             IdSymbol formal = (IdSymbol) formalIter.next();
             TypeSymbol formalType = null;
-            Token paramToken = tokenIter.next();
-            try {
-                formalType = (TypeSymbol) SymbolTable.globals.lookup(formal.type);
-            }catch(Exception e) {
-                e.printStackTrace();
-            }
+            formalType = formal.typeSymbol;
             if (!isSubClass(formalType, passedType)) {
                 String err = "In call to method " + explDispatch.method + " of class " + objType.getName() +
                         ", actual type " + passedType.getName() + " of formal parameter " +
                         formal.getName() + " is incompatible with declared type " + formalType.getName();
-                SymbolTable.error(explDispatch.ctx, paramToken, err);
+                error(explDispatch, arg.outerStart, err);
             }
         }
-        TypeSymbol methodReturn = (TypeSymbol) SymbolTable.globals.lookup(methodSymbol.type);
+        TypeSymbol methodReturn = methodSymbol.typeSymbol;
         if (methodReturn == null) {
             return null;
         }
-        if (methodReturn == TypeSymbol.SELFTYPE)
+        if (methodReturn == symbolTable.selfType)
             return objType;
         return methodReturn;
 
@@ -409,37 +427,37 @@ public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
 
     @Override
     public TypeSymbol visit(ImplDispatch implDispatch) {
-        MethodSymbol methodSymbol = SymbolTable.getMethod(currentClass, implDispatch.method);
+        MethodSymbol methodSymbol = symbolTable.getMethod(currentClass, implDispatch.method);
         if (methodSymbol == null) {
             String err = "Undefined method " + implDispatch.method + " in class " + currentClass.getName();
-            SymbolTable.error(implDispatch.ctx, ((CoolParser.ImpldispatchContext) implDispatch.ctx).name, err);
+            error(implDispatch, implDispatch.namePosition, err);
             return null;
         }
+        implDispatch.methodSymbol = methodSymbol;
         if (implDispatch.params.size() != methodSymbol.getFormals().size()) {
             String err = "Method "+implDispatch.method+" of class "+currentClass.getName()+" is applied to wrong number of arguments";
-            SymbolTable.error(implDispatch.ctx, ((CoolParser.ImpldispatchContext) implDispatch.ctx).name, err);
+            error(implDispatch, implDispatch.namePosition, err);
             return null;
         }
         var formalIter = methodSymbol.getFormals().values().iterator();
         var argsIter = implDispatch.params.iterator();
-        var tokenIter = implDispatch.paramtokens.iterator();
         while (formalIter.hasNext()) {
-            TypeSymbol passedType = argsIter.next().accept(this);
+            var arg = argsIter.next();
+            TypeSymbol passedType = typeOf(arg);
             IdSymbol formal = (IdSymbol) formalIter.next();
-            TypeSymbol formalType = (TypeSymbol) SymbolTable.globals.lookup(formal.type);
-            Token paramToken = tokenIter.next();
+            TypeSymbol formalType = formal.typeSymbol;
             if (!isSubClass(formalType, passedType)) {
                 String err = "In call to method " + implDispatch.method + " of class " + currentClass.getName() +
                         ", actual type " + passedType.getName() + " of formal parameter " +
                         formal.getName() + " is incompatible with declared type " + formalType.getName();
-                SymbolTable.error(implDispatch.ctx, paramToken, err);
+                error(implDispatch, arg.outerStart, err);
             }
         }
-        TypeSymbol methodReturn = (TypeSymbol) SymbolTable.globals.lookup(methodSymbol.type);
+        TypeSymbol methodReturn = methodSymbol.typeSymbol;
         if (methodReturn == null) {
             return null;
         }
-        if (methodReturn == TypeSymbol.SELFTYPE) {
+        if (methodReturn == symbolTable.selfType) {
             return currentClass;
         }
         return methodReturn;
@@ -447,14 +465,14 @@ public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
 
     @Override
     public TypeSymbol visit(Decision decision) {
-        TypeSymbol condType = decision.cond.accept(this);
-        if (condType!= null && condType != TypeSymbol.BOOL) {
+        TypeSymbol condType = typeOf(decision.cond);
+        if (condType!= null && condType != symbolTable.boolType) {
             String err = "If condition has type "+condType.getName()+" instead of Bool";
-            SymbolTable.error(decision.ctx, ((CoolParser.IfContext) decision.ctx).cond.start, err);
+            error(decision, decision.cond.outerStart, err);
         }
 
-        TypeSymbol thenType = decision.thenExpr.accept(this);
-        TypeSymbol elseType = decision.elseExpr.accept(this);
+        TypeSymbol thenType = typeOf(decision.thenExpr);
+        TypeSymbol elseType = typeOf(decision.elseExpr);
         if (thenType != null && elseType != null) {
             TypeSymbol commonType = mostSpecificCommonAncestor(thenType,elseType);
             if (commonType == null) {
@@ -471,137 +489,127 @@ public class ResolutionPassVisitor implements ASTVisitor<TypeSymbol> {
 
     @Override
     public TypeSymbol visit(Loop loop) {
-        TypeSymbol condType = loop.cond.accept(this);
-        if (condType!= null && condType != TypeSymbol.BOOL) {
+        TypeSymbol condType = typeOf(loop.cond);
+        if (condType!= null && condType != symbolTable.boolType) {
             String err = "While condition has type "+condType.getName()+" instead of Bool";
-            SymbolTable.error(loop.ctx, ((CoolParser.WhileContext) loop.ctx).cond.start, err);
+            error(loop, loop.cond.outerStart, err);
         }
-        loop.body.accept(this);
-        return TypeSymbol.OBJECT;
+        typeOf(loop.body);
+        return symbolTable.objectType;
     }
 
     @Override
     public TypeSymbol visit(Let let) {
-        var auxScope = currentScope;
-        let.scope = new DefaultScope(currentScope);
-        currentScope = let.scope;
-
-        int i = 0;
         for (var variable : let.locals) {
             if (variable.name.equals("self")) {
                 String err = "Let variable has illegal name self";
-                SymbolTable.error(let.ctx, ((CoolParser.LetContext)let.ctx).var_decl().get(i).name,err);
+                error(let, variable.namePosition,err);
             }
-            TypeSymbol varType = (TypeSymbol) SymbolTable.globals.lookup(variable.type);
+            TypeSymbol varType = variable.symbol.typeSymbol;
             if (varType == null) {
                 String err = "Let variable " + variable.name +" has undefined type " + variable.type;
-                SymbolTable.error(let.ctx, ((CoolParser.LetContext)let.ctx).var_decl().get(i).type,err);
+                error(let, variable.typePosition,err);
             }
             else if (variable.init != null) {
-                TypeSymbol initType = variable.init.accept(this);
+                TypeSymbol initType = typeOf(variable.init);
 
                 if (initType != null && !isSubClass(varType, initType)) {
                     String err = "Type "+initType.getName()+" of initialization expression of identifier "+variable.name+" is " +
                             "incompatible with declared type " + variable.type;
-                    SymbolTable.error(let.ctx, variable.init.ctx.start,err);
+                    error(let, variable.init.start,err);
                 }
             }
-            IdSymbol id = new IdSymbol(variable.name);
-            id.type = variable.type;
-            currentScope.add(id);
-            i++;
         }
-        TypeSymbol retType = let.body.accept(this);
-        currentScope = auxScope;
-        return retType;
+        return typeOf(let.body);
     }
 
     @Override
     public TypeSymbol visit(Program program) {
-        for(var cl : program.classes) {
-            cl.accept(this);
+        if (!parallel) {
+            for(var cl : program.classes) {
+                cl.accept(this);
+            }
+            return null;
         }
+
+        // Once the definition pass is over, checking a class only reads the
+        // symbols and only writes to its own nodes, so the classes are
+        // independent of each other. Their errors are printed in source order, as they would be
+        // if the classes were checked one after another.
+        var tasks = new ArrayList<ForkJoinTask<?>>();
+        for (var cl : program.classes) {
+            var errors = diagnostics.group();
+            tasks.add(ForkJoinTask.adapt(() -> {
+                var start = taskMeasures == null ? null : new CompilationStats.Sample();
+                cl.accept(new ResolutionPassVisitor(this, errors));
+                if (taskMeasures != null)
+                    taskMeasures.add(new CompilationStats.Measure("resolve " + cl.id, start));
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
         return null;
     }
 
+    // What checking each class took on its worker thread, so far, or null
+    // unless the classes are checked in parallel and measured.
+    List<CompilationStats.Measure> getTaskMeasures() {
+        return taskMeasures;
+    }
+
     @Override
     public TypeSymbol visit(Block block) {
         TypeSymbol typeSymbol = null;
         for (var expr : block.expressions) {
-            typeSymbol = expr.accept(this);
+            typeSymbol = typeOf(expr);
         }
         return typeSymbol;
     }
 
     boolean isSubClass(TypeSymbol t1, TypeSymbol t2) {
-
-        while (true) {
-            if (t2 == t1) {
-                return true;
-            }
-            if (t2.getName().equals("Object"))
-                break;
-            t2 = (TypeSymbol) SymbolTable.globals.lookup(t2.superClass);
-        }
-        return false;
+        return t2 == t1 || symbolTable.hierarchy.isSubClass(t1, t2);
     }
-    TypeSymbol mostSpecificCommonAncestor(TypeSymbol t1, TypeSymbol t2) {
 
-        while (true) {
-            if (isSubClass(t1,t2)){
-                return t1;
-            }
-            if (t1.getName().equals("Object"))
-                break;
-            t1 = (TypeSymbol) SymbolTable.globals.lookup(t1.superClass);
-        }
-        return TypeSymbol.OBJECT;
+    TypeSymbol mostSpecificCommonAncestor(TypeSymbol t1, TypeSymbol t2) {
+        return symbolTable.hierarchy.leastCommonAncestor(t1, t2);
     }
+
     @Override
     public TypeSymbol visit(Case caseNode) {
-        TypeSymbol exprEvalType = caseNode.expr.accept(this);
+        TypeSymbol exprEvalType = typeOf(caseNode.expr);
         ArrayList<TypeSymbol> branchReturns = new ArrayList<>();
         for (var branch : caseNode.branches) {
-            branch.scope = new DefaultScope(currentScope);
             branchReturns.add(branch.accept(this));
         }
 
-        if (branchReturns.size() == 1) {
-            return branchReturns.get(0);
-        }
-
-        TypeSymbol retType = branchReturns.remove(0);
-        for (var brRet : branchReturns) {
-            retType = mostSpecificCommonAncestor(retType,brRet);
+        // Join the branch types one at a time; once Object is reached the
+        // remaining branches cannot change the result. As for if, a branch
+        // whose type is unknown leaves that of the case unknown.
+        TypeSymbol retType = branchReturns.get(0);
+        for (int i = 1; i < branchReturns.size() && retType != null && retType != symbolTable.objectType; i++) {
+            var branchType = branchReturns.get(i);
+            retType = branchType == null ? null : mostSpecificCommonAncestor(retType, branchType);
         }
         return  retType;
     }
 
     @Override
     public TypeSymbol visit(CaseBranch caseBranch) {
-        var auxScope = currentScope;
-        currentScope = caseBranch.scope;
-
-        IdSymbol variable = new IdSymbol(caseBranch.name);
-        variable.type = caseBranch.type;
-        currentScope.add(variable);
-        TypeSymbol varType = (TypeSymbol) SymbolTable.globals.lookup(variable.type);
+        IdSymbol variable = caseBranch.symbol;
+        TypeSymbol varType = variable.typeSymbol;
         if (variable.getName().equals("self")) {
             String err = "Case variable has illegal name self";
-            SymbolTable.error(caseBranch.ctx, ((CoolParser.Case_branchContext)caseBranch.ctx).name,err);
+            error(caseBranch, caseBranch.namePosition,err);
         }
         if (varType == null) {
             String err = "Case variable " + variable.getName() + " has undefined type " + variable.type;
-            SymbolTable.error(caseBranch.ctx, ((CoolParser.Case_branchContext)caseBranch.ctx).type,err);
+            error(caseBranch, caseBranch.typePosition,err);
         }
-        else if (varType == TypeSymbol.SELFTYPE) {
+        else if (varType == symbolTable.selfType) {
             String err = "Case variable " + variable.getName() + " has illegal type SELF_TYPE";
-            SymbolTable.error(caseBranch.ctx, ((CoolParser.Case_branchContext)caseBranch.ctx).type,err);
+            error(caseBranch, caseBranch.typePosition,err);
         }
 
-        TypeSymbol retType = caseBranch.body.accept(this);
-        currentScope = auxScope;
-        return retType;
+        return typeOf(caseBranch.body);
     }
 
     @Override
@@ -0,0 +1,48 @@
+package cool.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where each temp of a function lives: in a register, or in a spill slot of
+ * the frame. Also lists the callee-saved registers the function uses, which
+ * it must save on entry and restore on exit.
+ */
+public class Allocation {
+    private final Map<Temp, String> registers = new HashMap<>();
+    private final Map<Temp, Integer> spillSlots = new HashMap<>();
+    private final List<String> calleeSaved = new ArrayList<>();
+
+    void assign(Temp temp, String register) {
+        registers.put(temp, register);
+    }
+
+    void spill(Temp temp) {
+        registers.remove(temp);
+        spillSlots.put(temp, spillSlots.size());
+    }
+
+    void useCalleeSaved(String register) {
+        if (!calleeSaved.contains(register))
+            calleeSaved.add(register);
+    }
+
+    // Null if the temp is spilled.
+    public String register(Temp temp) {
+        return registers.get(temp);
+    }
+
+    public int spillSlot(Temp temp) {
+        return spillSlots.get(temp);
+    }
+
+    public int spillSlotCount() {
+        return spillSlots.size();
+    }
+
+    public List<String> calleeSavedRegisters() {
+        return calleeSaved;
+    }
+}
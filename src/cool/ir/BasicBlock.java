@@ -0,0 +1,39 @@
+package cool.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A straight sequence of instructions, entered at the top and left through
+ * the terminator at the bottom.
+ */
+public class BasicBlock {
+    public final String label;
+    public final List<Instruction> instructions = new ArrayList<>();
+
+    public BasicBlock(String label) {
+        this.label = label;
+    }
+
+    public void add(Instruction instruction) {
+        instructions.add(instruction);
+    }
+
+    // Null until the block is complete.
+    public Instruction terminator() {
+        if (instructions.isEmpty())
+            return null;
+        var last = instructions.get(instructions.size() - 1);
+        return last.isTerminator() ? last : null;
+    }
+
+    public List<BasicBlock> successors() {
+        var terminator = terminator();
+        return terminator == null ? List.of() : terminator.successors();
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -0,0 +1,192 @@
+package cool.ir;
+
+import cool.ir.Instruction.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Constant folding and propagation on SSA functions. Arithmetic, comparisons
+ * and negations of constants become constants, and so do phis joining the
+ * same constant from every side. Branches on constants become jumps, and
+ * the code they no longer reach is dropped. Boxing a constant takes its
+ * static object instead of allocating one. The constants left unread are
+ * removed by {@link DeadCodeElimination}.
+ *
+ * Int arithmetic wraps around at 32 bits, as it does on MIPS. A division by
+ * zero is left to fail at run time, and so is the division of the smallest
+ * Int by -1, which overflows.
+ */
+public class ConstantFolding implements Pass {
+    // Label of the static Int object of a value.
+    private final IntFunction<String> intConstants;
+
+    // Values of the temps set by Const instructions: raw values, or 0 for
+    // void objects.
+    private final Map<Temp, Integer> constants = new HashMap<>();
+    // Temps known to hold an object rather than void.
+    private final Set<Temp> objects = new HashSet<>();
+
+    public ConstantFolding(IntFunction<String> intConstants) {
+        this.intConstants = intConstants;
+    }
+
+    @Override
+    public boolean run(Function function) {
+        constants.clear();
+        objects.clear();
+        objects.add(function.self);
+
+        // Definitions come before their uses, except for the values carried
+        // around loops.
+        boolean changed = false;
+        for (var block : new Dominators(function).reversePostorder()) {
+            changed |= foldPhis(block);
+            var instructions = block.instructions;
+            for (int i = 0; i < instructions.size(); i++) {
+                var instruction = instructions.get(i);
+                var folded = fold(instruction);
+                if (folded != null) {
+                    if (instruction.isTerminator())
+                        dropEdges(block, instruction, folded);
+                    instructions.set(i, folded);
+                    instruction = folded;
+                    changed = true;
+                }
+                learn(instruction);
+            }
+        }
+        if (changed)
+            function.removeUnreachableBlocks();
+        return changed;
+    }
+
+    private void learn(Instruction instruction) {
+        if (instruction instanceof Const)
+            constants.put(((Const) instruction).dst, ((Const) instruction).value);
+        else if (instruction instanceof Address || instruction instanceof New
+                || instruction instanceof Box)
+            objects.add(instruction.def());
+    }
+
+    // Phis of the same constant become that constant, after the other phis.
+    private boolean foldPhis(BasicBlock block) {
+        var instructions = block.instructions;
+        var folded = new ArrayList<Const>();
+        int phiCount = 0;
+        while (phiCount < instructions.size() && instructions.get(phiCount) instanceof Phi) {
+            var phi = (Phi) instructions.get(phiCount);
+            Integer value = null;
+            boolean constant = true;
+            for (var arg : phi.args.values()) {
+                var argValue = constants.get(arg);
+                if (arg != phi.dst && (argValue == null || (value != null && !value.equals(argValue))))
+                    constant = false;
+                if (argValue != null)
+                    value = argValue;
+            }
+            if (constant && value != null) {
+                instructions.remove(phiCount);
+                folded.add(new Const(phi.dst, value));
+            } else {
+                phiCount++;
+            }
+        }
+        instructions.addAll(phiCount, folded);
+        return !folded.isEmpty();
+    }
+
+    // The instruction to replace the given one with, or null.
+    private Instruction fold(Instruction instruction) {
+        if (instruction instanceof Binary) {
+            var binary = (Binary) instruction;
+            var left = constants.get(binary.left);
+            var right = constants.get(binary.right);
+            if (left == null || right == null)
+                return null;
+            var value = evaluate(binary.op, left, right);
+            return value == null ? null : new Const(binary.dst, value);
+        }
+        if (instruction instanceof Unary) {
+            var unary = (Unary) instruction;
+            var operand = constants.get(unary.operand);
+            switch (unary.op) {
+                case NEG: return operand == null ? null : new Const(unary.dst, -operand);
+                case NOT: return operand == null ? null : new Const(unary.dst, operand ^ 1);
+                default:
+                    if (objects.contains(unary.operand))
+                        return new Const(unary.dst, 0);
+                    return operand == null ? null : new Const(unary.dst, 1);
+            }
+        }
+        if (instruction instanceof Box) {
+            var box = (Box) instruction;
+            var value = constants.get(box.src);
+            if (value == null)
+                return null;
+            return new Address(box.dst, box.src.kind == Temp.Kind.INT
+                    ? intConstants.apply(value)
+                    : "bool_const" + value);
+        }
+        if (instruction instanceof Branch) {
+            var branch = (Branch) instruction;
+            if (objects.contains(branch.cond))
+                return new Jump(branch.ifTrue);
+            var value = constants.get(branch.cond);
+            return value == null ? null : new Jump(value != 0 ? branch.ifTrue : branch.ifFalse);
+        }
+        if (instruction instanceof CompareBranch) {
+            var branch = (CompareBranch) instruction;
+            var left = constants.get(branch.left);
+            var right = branch.right == null ? Integer.valueOf(branch.immediate) : constants.get(branch.right);
+            if (left == null || right == null)
+                return null;
+            return new Jump(compare(branch.op, left, right) ? branch.ifTrue : branch.ifFalse);
+        }
+        return null;
+    }
+
+    private static Integer evaluate(Binary.Op op, int left, int right) {
+        switch (op) {
+            case ADD: return left + right;
+            case SUB: return left - right;
+            case MUL: return left * right;
+            case DIV:
+                if (right == 0 || (left == Integer.MIN_VALUE && right == -1))
+                    return null;
+                return left / right;
+            case LT: return left < right ? 1 : 0;
+            case LE: return left <= right ? 1 : 0;
+            default: return left == right ? 1 : 0;
+        }
+    }
+
+    private static boolean compare(CompareBranch.Op op, int left, int right) {
+        switch (op) {
+            case LT: return left < right;
+            case LE: return left <= right;
+            case GT: return left > right;
+            case GE: return left >= right;
+            case EQ: return left == right;
+            default: return left != right;
+        }
+    }
+
+    // The phis of a successor no longer reached from the block lose their
+    // operand for it.
+    private static void dropEdges(BasicBlock block, Instruction before, Instruction after) {
+        for (var successor : before.successors()) {
+            if (after.successors().contains(successor))
+                continue;
+            for (var instruction : successor.instructions) {
+                if (!(instruction instanceof Phi))
+                    break;
+                ((Phi) instruction).args.remove(block);
+            }
+        }
+    }
+}
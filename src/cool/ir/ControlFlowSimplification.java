@@ -0,0 +1,87 @@
+package cool.ir;
+
+import cool.ir.Instruction.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tidies the control flow of an SSA function once branches have been folded
+ * and code removed: a branch to the same block both ways becomes a jump,
+ * jumps to a block holding nothing but another jump go straight to its
+ * target, and a block only ever entered by a jump from its predecessor is
+ * merged into it.
+ */
+public class ControlFlowSimplification implements Pass {
+
+    @Override
+    public boolean run(Function function) {
+        boolean changed = false;
+        for (var block : function.blocks) {
+            var terminator = block.terminator();
+            if (terminator != null && terminator.successors().size() == 2
+                    && terminator.successors().get(0) == terminator.successors().get(1)) {
+                block.instructions.set(block.instructions.size() - 1,
+                        new Jump(terminator.successors().get(0)));
+                changed = true;
+            }
+        }
+
+        var predecessors = function.predecessors();
+        for (var block : function.blocks) {
+            var target = emptyJumpTarget(function, block);
+            if (target == null)
+                continue;
+            for (var predecessor : predecessors.get(block))
+                predecessor.terminator().replaceSuccessor(block, target);
+            changed |= !predecessors.get(block).isEmpty();
+        }
+        changed |= function.removeUnreachableBlocks();
+
+        predecessors = function.predecessors();
+        for (int i = 0; i < function.blocks.size(); i++) {
+            var block = function.blocks.get(i);
+            var predecessor = mergeableInto(function, block, predecessors);
+            if (predecessor == null)
+                continue;
+            predecessor.instructions.remove(predecessor.instructions.size() - 1);
+            predecessor.instructions.addAll(block.instructions);
+            for (var successor : block.successors()) {
+                predecessors.get(successor).replaceAll(p -> p == block ? predecessor : p);
+                for (var instruction : successor.instructions) {
+                    if (!(instruction instanceof Phi))
+                        break;
+                    ((Phi) instruction).replacePredecessor(block, predecessor);
+                }
+            }
+            function.blocks.remove(i--);
+            changed = true;
+        }
+        return changed;
+    }
+
+    // The block control always goes on to from the given one, if the block
+    // only jumps there and can be bypassed.
+    private static BasicBlock emptyJumpTarget(Function function, BasicBlock block) {
+        if (block == function.entry() || block.instructions.size() != 1
+                || !(block.instructions.get(0) instanceof Jump))
+            return null;
+        var target = ((Jump) block.instructions.get(0)).target;
+        // The operands of phis tell their predecessors apart.
+        if (target == block || !target.instructions.isEmpty() && target.instructions.get(0) instanceof Phi)
+            return null;
+        return target;
+    }
+
+    private static BasicBlock mergeableInto(Function function, BasicBlock block,
+            Map<BasicBlock, List<BasicBlock>> predecessors) {
+        if (block == function.entry() || predecessors.get(block).size() != 1)
+            return null;
+        var predecessor = predecessors.get(block).get(0);
+        if (predecessor == block || !(predecessor.terminator() instanceof Jump))
+            return null;
+        if (!block.instructions.isEmpty() && block.instructions.get(0) instanceof Phi)
+            return null;
+        return predecessor;
+    }
+}
@@ -0,0 +1,61 @@
+package cool.ir;
+
+import cool.ir.Instruction.Copy;
+import cool.ir.Instruction.Phi;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Removes the copies of an SSA function, reading each copied temp instead of
+ * its copy. A phi whose operands are all the same temp, not counting itself,
+ * is a copy too.
+ */
+public class CopyPropagation implements Pass {
+
+    @Override
+    public boolean run(Function function) {
+        var replacements = new HashMap<Temp, Temp>();
+        for (var block : function.blocks)
+            block.instructions.removeIf(instruction -> {
+                var source = copied(instruction);
+                if (source == null)
+                    return false;
+                replacements.put(instruction.def(), source);
+                return true;
+            });
+        if (replacements.isEmpty())
+            return false;
+
+        // A copy may be of another copy.
+        for (var entry : replacements.entrySet())
+            entry.setValue(resolve(entry.getValue(), replacements));
+        for (var block : function.blocks)
+            for (var instruction : block.instructions)
+                instruction.replaceUses(replacements);
+        return true;
+    }
+
+    private static Temp copied(Instruction instruction) {
+        if (instruction instanceof Copy)
+            return ((Copy) instruction).src;
+        if (!(instruction instanceof Phi))
+            return null;
+        var phi = (Phi) instruction;
+        Temp source = null;
+        for (var arg : phi.args.values()) {
+            if (arg == phi.dst || arg == source)
+                continue;
+            if (source != null)
+                return null;
+            source = arg;
+        }
+        return source;
+    }
+
+    private static Temp resolve(Temp temp, Map<Temp, Temp> replacements) {
+        while (replacements.containsKey(temp))
+            temp = replacements.get(temp);
+        return temp;
+    }
+}
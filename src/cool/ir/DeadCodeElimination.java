@@ -0,0 +1,79 @@
+package cool.ir;
+
+import cool.ir.Instruction.*;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes the instructions of an SSA function whose results are never used
+ * and which have no other effect, such as the values of the expressions of
+ * a block other than the last, or phis only feeding each other around a
+ * loop. Everything is assumed dead except the instructions with effects and
+ * what they transitively read.
+ *
+ * Calls and allocations always stay, but lose a result nobody reads. A
+ * division stays unless its divisor is a constant other than 0, as it
+ * aborts the program otherwise.
+ */
+public class DeadCodeElimination implements Pass {
+
+    @Override
+    public boolean run(Function function) {
+        var definitions = new HashMap<Temp, Instruction>();
+        var constants = new HashMap<Temp, Integer>();
+        for (var block : function.blocks)
+            for (var instruction : block.instructions) {
+                if (instruction.def() != null)
+                    definitions.put(instruction.def(), instruction);
+                if (instruction instanceof Const)
+                    constants.put(((Const) instruction).dst, ((Const) instruction).value);
+            }
+
+        Set<Instruction> live = new HashSet<>();
+        var work = new ArrayDeque<Instruction>();
+        for (var block : function.blocks)
+            for (var instruction : block.instructions)
+                if (hasEffect(instruction, constants) && live.add(instruction))
+                    work.push(instruction);
+        while (!work.isEmpty())
+            for (var use : work.pop().uses()) {
+                var definition = definitions.get(use);
+                if (definition != null && live.add(definition))
+                    work.push(definition);
+            }
+
+        boolean changed = false;
+        var read = new HashSet<Temp>();
+        for (var block : function.blocks) {
+            changed |= block.instructions.removeIf(instruction -> !live.contains(instruction));
+            for (var instruction : block.instructions)
+                read.addAll(instruction.uses());
+        }
+        for (var block : function.blocks)
+            for (var instruction : block.instructions) {
+                if (instruction instanceof Call && instruction.def() != null
+                        && !read.contains(instruction.def())) {
+                    ((Call) instruction).dst = null;
+                    changed = true;
+                } else if (instruction instanceof New && instruction.def() != null
+                        && !read.contains(instruction.def())) {
+                    ((New) instruction).dst = null;
+                    changed = true;
+                }
+            }
+        return changed;
+    }
+
+    private static boolean hasEffect(Instruction instruction, HashMap<Temp, Integer> constants) {
+        if (instruction.def() == null || instruction instanceof Call || instruction instanceof New)
+            return true;
+        if (instruction instanceof Binary && ((Binary) instruction).op == Binary.Op.DIV) {
+            var divisor = constants.get(((Binary) instruction).right);
+            return divisor == null || divisor == 0;
+        }
+        return false;
+    }
+}
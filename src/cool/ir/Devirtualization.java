@@ -0,0 +1,64 @@
+package cool.ir;
+
+import cool.ir.Instruction.Call;
+import cool.ir.Instruction.New;
+import cool.structures.MethodSymbol;
+import cool.structures.TypeSymbol;
+
+import java.util.HashSet;
+
+/**
+ * Turns dispatches that can only ever call one method into direct calls.
+ * Static dispatches always do; otherwise the class hierarchy decides, from
+ * the static type of the receiver, or its exact class if the function
+ * created it.
+ */
+public class Devirtualization implements Pass {
+
+    public interface Targets {
+        // The only method that a dispatch to the given one can call on an
+        // object of the given class, or of any of its subclasses unless
+        // exact; null if there may be several.
+        MethodSymbol uniqueMethod(TypeSymbol type, boolean exact, MethodSymbol method);
+    }
+
+    private final Targets targets;
+
+    public Devirtualization(Targets targets) {
+        this.targets = targets;
+    }
+
+    @Override
+    public boolean run(Function function) {
+        var created = new HashSet<Temp>();
+        for (var block : function.blocks)
+            for (var instruction : block.instructions)
+                if (instruction instanceof New && ((New) instruction).className != null)
+                    created.add(instruction.def());
+
+        boolean changed = false;
+        for (var block : function.blocks)
+            for (var instruction : block.instructions) {
+                if (!(instruction instanceof Call))
+                    continue;
+                var call = (Call) instruction;
+                if (call.target != null)
+                    continue;
+                var method = call.staticClass != null
+                        ? call.method
+                        : targets.uniqueMethod(call.receiver.type, created.contains(call.receiver),
+                                call.method);
+                if (method == null)
+                    continue;
+                call.method = method;
+                call.staticClass = null;
+                call.target = label(method);
+                changed = true;
+            }
+        return changed;
+    }
+
+    public static String label(MethodSymbol method) {
+        return method.getDefiningClass().getName() + "." + method.getName();
+    }
+}
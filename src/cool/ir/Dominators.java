@@ -0,0 +1,105 @@
+package cool.ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The dominator tree and dominance frontiers of a function whose blocks are
+ * all reachable from the entry, by the iterative algorithm of Cooper, Harvey
+ * and Kennedy.
+ */
+public class Dominators {
+    // Blocks in reverse postorder, and the position of each in it.
+    private final List<BasicBlock> order = new ArrayList<>();
+    private final Map<BasicBlock, Integer> positions = new HashMap<>();
+    private final Map<BasicBlock, BasicBlock> idoms = new HashMap<>();
+    private final Map<BasicBlock, List<BasicBlock>> children = new HashMap<>();
+    private final Map<BasicBlock, Set<BasicBlock>> frontiers = new HashMap<>();
+
+    public Dominators(Function function) {
+        var entry = function.entry();
+        postorder(entry, new HashSet<>());
+        for (int i = 0, j = order.size() - 1; i < j; i++, j--) {
+            var block = order.get(i);
+            order.set(i, order.get(j));
+            order.set(j, block);
+        }
+        for (int i = 0; i < order.size(); i++)
+            positions.put(order.get(i), i);
+
+        var predecessors = function.predecessors();
+        idoms.put(entry, entry);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (var block : order.subList(1, order.size())) {
+                BasicBlock idom = null;
+                for (var predecessor : predecessors.get(block))
+                    if (idoms.containsKey(predecessor))
+                        idom = idom == null ? predecessor : intersect(predecessor, idom);
+                if (idoms.get(block) != idom) {
+                    idoms.put(block, idom);
+                    changed = true;
+                }
+            }
+        }
+
+        for (var block : order) {
+            children.put(block, new ArrayList<>());
+            frontiers.put(block, new HashSet<>());
+        }
+        for (var block : order.subList(1, order.size()))
+            children.get(idoms.get(block)).add(block);
+
+        // A join point is in the frontier of each block on the way up from
+        // its predecessors to its immediate dominator.
+        for (var block : order) {
+            var blockPredecessors = predecessors.get(block);
+            if (blockPredecessors.size() < 2)
+                continue;
+            for (var predecessor : blockPredecessors)
+                for (var runner = predecessor; runner != idoms.get(block); runner = idoms.get(runner))
+                    frontiers.get(runner).add(block);
+        }
+    }
+
+    private void postorder(BasicBlock block, Set<BasicBlock> visited) {
+        visited.add(block);
+        for (var successor : block.successors())
+            if (!visited.contains(successor))
+                postorder(successor, visited);
+        order.add(block);
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b) {
+        while (a != b) {
+            while (positions.get(a) > positions.get(b))
+                a = idoms.get(a);
+            while (positions.get(b) > positions.get(a))
+                b = idoms.get(b);
+        }
+        return a;
+    }
+
+    public List<BasicBlock> reversePostorder() {
+        return order;
+    }
+
+    // Null for the entry.
+    public BasicBlock idom(BasicBlock block) {
+        var idom = idoms.get(block);
+        return idom == block ? null : idom;
+    }
+
+    public List<BasicBlock> children(BasicBlock block) {
+        return children.get(block);
+    }
+
+    public Set<BasicBlock> frontier(BasicBlock block) {
+        return frontiers.get(block);
+    }
+}
@@ -0,0 +1,99 @@
+package cool.ir;
+
+import cool.structures.TypeSymbol;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The intermediate code of a method or class initializer. The first block is
+ * the entry; the blocks are kept in the order their code is laid out.
+ *
+ * self is the receiver, which stays in its own register for the whole
+ * method and is never allocated.
+ */
+public class Function {
+    public final String label;
+    public final int paramCount;
+    public final List<BasicBlock> blocks = new ArrayList<>();
+    public final Temp self;
+
+    private int tempCount;
+
+    public Function(String label, int paramCount, TypeSymbol selfType) {
+        this.label = label;
+        this.paramCount = paramCount;
+        this.self = newTemp(Temp.Kind.OBJECT, selfType);
+    }
+
+    public Temp newTemp(Temp.Kind kind, TypeSymbol type) {
+        return new Temp(tempCount++, kind, type);
+    }
+
+    // A new temp for the same kind of value as the given one.
+    public Temp newTemp(Temp like) {
+        return newTemp(like.kind, like.type);
+    }
+
+    // Temp ids are below this number.
+    public int tempCount() {
+        return tempCount;
+    }
+
+    public BasicBlock entry() {
+        return blocks.get(0);
+    }
+
+    // The blocks control may come from, for every block.
+    public Map<BasicBlock, List<BasicBlock>> predecessors() {
+        var predecessors = new HashMap<BasicBlock, List<BasicBlock>>();
+        for (var block : blocks)
+            predecessors.put(block, new ArrayList<>());
+        for (var block : blocks)
+            for (var successor : block.successors())
+                predecessors.get(successor).add(block);
+        return predecessors;
+    }
+
+    // Drops the blocks control cannot reach from the entry, and the phi
+    // operands coming from them. True if there were any.
+    public boolean removeUnreachableBlocks() {
+        var reached = new HashSet<BasicBlock>();
+        var work = new ArrayDeque<BasicBlock>();
+        work.push(entry());
+        reached.add(entry());
+        while (!work.isEmpty())
+            for (var successor : work.pop().successors())
+                if (reached.add(successor))
+                    work.push(successor);
+        if (reached.size() == blocks.size())
+            return false;
+
+        blocks.removeIf(block -> !reached.contains(block));
+        for (var block : blocks)
+            for (var instruction : block.instructions)
+                if (instruction instanceof Instruction.Phi)
+                    ((Instruction.Phi) instruction).args.keySet().retainAll(reached);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        var result = new StringBuilder(label).append(":").append(System.lineSeparator());
+        for (var block : blocks) {
+            result.append(block.label).append(":").append(System.lineSeparator());
+            for (var instruction : block.instructions) {
+                result.append("    ").append(instruction);
+                var def = instruction.def();
+                if (def != null && def.type != null)
+                    result.append("    # ").append(def.type.getName());
+                result.append(System.lineSeparator());
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,159 @@
+package cool.ir;
+
+import cool.ir.Instruction.*;
+import cool.structures.MethodSymbol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Replaces direct calls to small methods with a copy of their body, so that
+ * getters, setters and the like cost no call at all. The receiver is checked
+ * for void where the call would have, and the result comes from the returns
+ * of the copy.
+ *
+ * A method is inlined if its body, once optimized, has at most BUDGET
+ * instructions besides its parameters, jumps and returns. Functions stop
+ * taking in bodies when they reach MAX_SIZE instructions, which also bounds
+ * the unrolling of recursive methods.
+ */
+public class Inlining implements Pass {
+    private static final int BUDGET = 10;
+    private static final int MAX_SIZE = 400;
+
+    public interface Bodies {
+        // A new copy of the body of the method, in SSA form, or null if the
+        // method has none, like those of the basic classes.
+        Function body(MethodSymbol method);
+    }
+
+    private final Bodies bodies;
+    private final Supplier<String> labels;
+    // Whether the body of a method is small enough, once it was looked at.
+    private final Map<MethodSymbol, Boolean> small = new HashMap<>();
+
+    public Inlining(Bodies bodies, Supplier<String> labels) {
+        this.bodies = bodies;
+        this.labels = labels;
+    }
+
+    @Override
+    public boolean run(Function function) {
+        boolean changed = false;
+        for (int i = 0; i < function.blocks.size() && size(function) < MAX_SIZE; i++) {
+            var block = function.blocks.get(i);
+            for (int j = 0; j < block.instructions.size(); j++) {
+                var instruction = block.instructions.get(j);
+                if (!(instruction instanceof Call))
+                    continue;
+                var call = (Call) instruction;
+                if (call.target == null || call.method == null || call.target.equals(function.label))
+                    continue;
+                var callee = smallBody(call.method);
+                if (callee == null)
+                    continue;
+                inline(function, i, j, call, callee);
+                changed = true;
+                // The rest of the block was moved after the copy.
+                break;
+            }
+        }
+        if (changed)
+            function.removeUnreachableBlocks();
+        return changed;
+    }
+
+    private Function smallBody(MethodSymbol method) {
+        if (small.get(method) == Boolean.FALSE)
+            return null;
+        var body = bodies.body(method);
+        boolean fits = body != null && inlinable(body);
+        small.put(method, fits);
+        return fits ? body : null;
+    }
+
+    private static boolean inlinable(Function body) {
+        // Control enters the copy from the call only.
+        if (!body.predecessors().get(body.entry()).isEmpty())
+            return false;
+        int size = 0;
+        for (var block : body.blocks)
+            for (var instruction : block.instructions) {
+                // An object of the class of self is made from self's tag.
+                if (instruction instanceof New && ((New) instruction).className == null)
+                    return false;
+                if (!(instruction instanceof Param || instruction instanceof Jump
+                        || instruction instanceof Return))
+                    size++;
+            }
+        return size <= BUDGET;
+    }
+
+    private static int size(Function function) {
+        int size = 0;
+        for (var block : function.blocks)
+            size += block.instructions.size();
+        return size;
+    }
+
+    // Replaces the call, the j-th instruction of the i-th block, with the
+    // blocks of the callee.
+    private void inline(Function function, int i, int j, Call call, Function callee) {
+        var block = function.blocks.get(i);
+
+        // The temps of the callee are renamed apart from the caller's, self
+        // and the parameters become the receiver and the arguments.
+        var renamed = new HashMap<Temp, Temp>();
+        renamed.put(callee.self, call.receiver);
+        for (var calleeBlock : callee.blocks)
+            for (var instruction : calleeBlock.instructions) {
+                if (instruction instanceof Param)
+                    renamed.put(instruction.def(), call.args.get(((Param) instruction).index));
+                else if (instruction.def() != null)
+                    renamed.put(instruction.def(), function.newTemp(instruction.def()));
+            }
+
+        var rest = new BasicBlock(labels.get());
+        var moved = block.instructions.subList(j + 1, block.instructions.size());
+        rest.instructions.addAll(moved);
+        moved.clear();
+        block.instructions.remove(j);
+        for (var successor : rest.successors())
+            for (var instruction : successor.instructions) {
+                if (!(instruction instanceof Phi))
+                    break;
+                ((Phi) instruction).replacePredecessor(block, rest);
+            }
+
+        var results = new Phi(call.dst);
+        for (var calleeBlock : callee.blocks) {
+            calleeBlock.instructions.removeIf(instruction -> instruction instanceof Param);
+            for (var instruction : calleeBlock.instructions) {
+                instruction.replaceUses(renamed);
+                if (instruction.def() != null)
+                    instruction.replaceDef(renamed.get(instruction.def()));
+            }
+            var terminator = calleeBlock.terminator();
+            if (terminator instanceof Return) {
+                results.args.put(calleeBlock, ((Return) terminator).value);
+                calleeBlock.instructions.set(calleeBlock.instructions.size() - 1, new Jump(rest));
+            }
+        }
+        if (call.dst != null && !results.args.isEmpty())
+            rest.instructions.add(0, results);
+
+        if (call.checkVoid) {
+            var abort = new BasicBlock(labels.get());
+            abort.add(new Abort(Abort.Kind.DISPATCH_VOID, call.receiver, call.fileName, call.line));
+            block.add(new Branch(call.receiver, callee.entry(), abort));
+            function.blocks.add(abort);
+        } else {
+            block.add(new Jump(callee.entry()));
+        }
+        var laidOut = new ArrayList<>(callee.blocks);
+        laidOut.add(rest);
+        function.blocks.addAll(i + 1, laidOut);
+    }
+}
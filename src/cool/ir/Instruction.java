@@ -0,0 +1,498 @@
+package cool.ir;
+
+import cool.structures.MethodSymbol;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A three-address instruction. Each one writes at most one temp, given by
+ * {@link #def()}, and reads the temps given by {@link #uses()}; the last
+ * instruction of a basic block is a terminator, which names the blocks
+ * control may continue to.
+ */
+public abstract class Instruction {
+
+    // Temp written by the instruction, or null.
+    public Temp def() {
+        return null;
+    }
+
+    // Temps read by the instruction.
+    public abstract List<Temp> uses();
+
+    // Calls do not preserve the caller-saved registers.
+    public boolean isCall() {
+        return false;
+    }
+
+    public boolean isTerminator() {
+        return false;
+    }
+
+    public List<BasicBlock> successors() {
+        return List.of();
+    }
+
+    // Reads the temps mapped to others from the mapped ones instead.
+    public abstract void replaceUses(Map<Temp, Temp> replacements);
+
+    // Writes the given temp instead of def().
+    public void replaceDef(Temp temp) {
+        throw new UnsupportedOperationException(toString());
+    }
+
+    // Continues to the given block instead of to from.
+    public void replaceSuccessor(BasicBlock from, BasicBlock to) {
+        throw new UnsupportedOperationException(toString());
+    }
+
+    static Temp replace(Temp temp, Map<Temp, Temp> replacements) {
+        return temp == null ? null : replacements.getOrDefault(temp, temp);
+    }
+
+    static BasicBlock replace(BasicBlock block, BasicBlock from, BasicBlock to) {
+        return block == from ? to : block;
+    }
+
+    // Joins values coming from the predecessors of its block, in SSA form;
+    // phis come first in their block, and read their operands on the edges
+    // they are taken from.
+    public static class Phi extends Instruction {
+        public Temp dst;
+        public final Map<BasicBlock, Temp> args = new LinkedHashMap<>();
+
+        public Phi(Temp dst) {
+            this.dst = dst;
+        }
+
+        @Override public Temp def() { return dst; }
+        @Override public List<Temp> uses() { return new ArrayList<>(args.values()); }
+        @Override public void replaceDef(Temp temp) { dst = temp; }
+
+        @Override
+        public void replaceUses(Map<Temp, Temp> replacements) {
+            args.replaceAll((block, temp) -> replace(temp, replacements));
+        }
+
+        // The operand for from is now taken on the edge from to, keeping its
+        // place among the others.
+        public void replacePredecessor(BasicBlock from, BasicBlock to) {
+            var old = new LinkedHashMap<>(args);
+            args.clear();
+            old.forEach((block, temp) -> args.put(replace(block, from, to), temp));
+        }
+
+        @Override
+        public String toString() {
+            var result = new StringBuilder(dst + " = phi");
+            args.forEach((block, temp) -> result.append(" ").append(block.label).append(":").append(temp));
+            return result.toString();
+        }
+    }
+
+    public static class Copy extends Instruction {
+        public Temp dst, src;
+
+        public Copy(Temp dst, Temp src) {
+            this.dst = dst;
+            this.src = src;
+        }
+
+        @Override public Temp def() { return dst; }
+        @Override public List<Temp> uses() { return List.of(src); }
+        @Override public void replaceDef(Temp temp) { dst = temp; }
+        @Override public void replaceUses(Map<Temp, Temp> replacements) { src = replace(src, replacements); }
+        @Override public String toString() { return dst + " = " + src; }
+    }
+
+    // A raw Int or Bool value, or 0 for void.
+    public static class Const extends Instruction {
+        public Temp dst;
+        public int value;
+
+        public Const(Temp dst, int value) {
+            this.dst = dst;
+            this.value = value;
+        }
+
+        @Override public Temp def() { return dst; }
+        @Override public List<Temp> uses() { return List.of(); }
+        @Override public void replaceDef(Temp temp) { dst = temp; }
+        @Override public void replaceUses(Map<Temp, Temp> replacements) { }
+        @Override public String toString() { return dst + " = " + value; }
+    }
+
+    // Address of a statically allocated object.
+    public static class Address extends Instruction {
+        public Temp dst;
+        public String label;
+
+        public Address(Temp dst, String label) {
+            this.dst = dst;
+            this.label = label;
+        }
+
+        @Override public Temp def() { return dst; }
+        @Override public List<Temp> uses() { return List.of(); }
+        @Override public void replaceDef(Temp temp) { dst = temp; }
+        @Override public void replaceUses(Map<Temp, Temp> replacements) { }
+        @Override public String toString() { return dst + " = &" + label; }
+    }
+
+    // The argument at the given position.
+    public static class Param extends Instruction {
+        public Temp dst;
+        public int index;
+
+        public Param(Temp dst, int index) {
+            this.dst = dst;
+            this.index = index;
+        }
+
+        @Override public Temp def() { return dst; }
+        @Override public List<Temp> uses() { return List.of(); }
+        @Override public void replaceDef(Temp temp) { dst = temp; }
+        @Override public void replaceUses(Map<Temp, Temp> replacements) { }
+        @Override public String toString() { return dst + " = param " + index; }
+    }
+
+    // A word of an object: an attribute, the tag, or the value of an Int or
+    // Bool.
+    public static class Load extends Instruction {
+        public Temp dst, base;
+        public int offset;
+
+        public Load(Temp dst, Temp base, int offset) {
+            this.dst = dst;
+            this.base = base;
+            this.offset = offset;
+        }
+
+        @Override public Temp def() { return dst; }
+        @Override public List<Temp> uses() { return List.of(base); }
+        @Override public void replaceDef(Temp temp) { dst = temp; }
+        @Override public void replaceUses(Map<Temp, Temp> replacements) { base = replace(base, replacements); }
+        @Override public String toString() { return dst + " = " + offset + "(" + base + ")"; }
+    }
+
+    public static class Store extends Instruction {
+        public Temp base, src;
+        public int offset;
+
+        public Store(Temp base, int offset, Temp src) {
+            this.base = base;
+            this.offset = offset;
+            this.src = src;
+        }
+
+        @Override public List<Temp> uses() { return List.of(base, src); }
+
+        @Override
+        public void replaceUses(Map<Temp, Temp> replacements) {
+            base = replace(base, replacements);
+            src = replace(src, replacements);
+        }
+
+        @Override public String toString() { return offset + "(" + base + ") = " + src; }
+    }
+
+    // Arithmetic and comparisons on raw values.
+    public static class Binary extends Instruction {
+        public enum Op { ADD, SUB, MUL, DIV, LT, LE, EQ }
+
+        public Temp dst, left, right;
+        public Op op;
+
+        public Binary(Temp dst, Op op, Temp left, Temp right) {
+            this.dst = dst;
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override public Temp def() { return dst; }
+        @Override public List<Temp> uses() { return List.of(left, right); }
+        @Override public void replaceDef(Temp temp) { dst = temp; }
+
+        @Override
+        public void replaceUses(Map<Temp, Temp> replacements) {
+            left = replace(left, replacements);
+            right = replace(right, replacements);
+        }
+
+        @Override public String toString() { return dst + " = " + op + " " + left + " " + right; }
+    }
+
+    public static class Unary extends Instruction {
+        public enum Op { NEG, NOT, ISVOID }
+
+        public Temp dst, operand;
+        public Op op;
+
+        public Unary(Temp dst, Op op, Temp operand) {
+            this.dst = dst;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        @Override public Temp def() { return dst; }
+        @Override public List<Temp> uses() { return List.of(operand); }
+        @Override public void replaceDef(Temp temp) { dst = temp; }
+        @Override public void replaceUses(Map<Temp, Temp> replacements) { operand = replace(operand, replacements); }
+        @Override public String toString() { return dst + " = " + op + " " + operand; }
+    }
+
+    // Wraps a raw value in an object. A new Int is allocated; Bool values
+    // are one of the two constants.
+    public static class Box extends Instruction {
+        public Temp dst, src;
+
+        public Box(Temp dst, Temp src) {
+            this.dst = dst;
+            this.src = src;
+        }
+
+        @Override public Temp def() { return dst; }
+        @Override public List<Temp> uses() { return List.of(src); }
+        @Override public void replaceDef(Temp temp) { dst = temp; }
+        @Override public void replaceUses(Map<Temp, Temp> replacements) { src = replace(src, replacements); }
+        @Override public boolean isCall() { return src.kind == Temp.Kind.INT; }
+        @Override public String toString() { return dst + " = box " + src; }
+    }
+
+    // Equality of two objects, compared by value if they are Ints, Strings
+    // or Bools; the result is a raw Bool.
+    public static class Equal extends Instruction {
+        public Temp dst, left, right;
+
+        public Equal(Temp dst, Temp left, Temp right) {
+            this.dst = dst;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override public Temp def() { return dst; }
+        @Override public List<Temp> uses() { return List.of(left, right); }
+        @Override public void replaceDef(Temp temp) { dst = temp; }
+
+        @Override
+        public void replaceUses(Map<Temp, Temp> replacements) {
+            left = replace(left, replacements);
+            right = replace(right, replacements);
+        }
+
+        @Override public boolean isCall() { return true; }
+        @Override public String toString() { return dst + " = equal " + left + " " + right; }
+    }
+
+    // A method call, through the dispatch table of the receiver, or of
+    // staticClass if set, or straight to target if that is set. A void
+    // receiver is reported at the given line if checkVoid is set. dst is
+    // null if the result is not used.
+    public static class Call extends Instruction {
+        public Temp dst, receiver;
+        public List<Temp> args;
+        public MethodSymbol method;
+        public String staticClass;
+        public String target;
+        public boolean checkVoid;
+        public String fileName;
+        public int line;
+
+        public Call(Temp dst, Temp receiver, List<Temp> args, MethodSymbol method) {
+            this.dst = dst;
+            this.receiver = receiver;
+            this.args = args;
+            this.method = method;
+        }
+
+        @Override public Temp def() { return dst; }
+
+        @Override
+        public List<Temp> uses() {
+            var uses = new ArrayList<>(args);
+            uses.add(receiver);
+            return uses;
+        }
+
+        @Override public boolean isCall() { return true; }
+        @Override public void replaceDef(Temp temp) { dst = temp; }
+
+        @Override
+        public void replaceUses(Map<Temp, Temp> replacements) {
+            args.replaceAll(arg -> replace(arg, replacements));
+            receiver = replace(receiver, replacements);
+        }
+
+        @Override
+        public String toString() {
+            var result = dst == null ? "call " : dst + " = call ";
+            if (target != null)
+                return result + target + " " + receiver + args;
+            return result + receiver
+                    + (staticClass == null ? "" : "@" + staticClass)
+                    + "." + method.getName() + args;
+        }
+    }
+
+    // A new object of the given class, or of the class of self if the class
+    // is null. dst is null if the object is not used.
+    public static class New extends Instruction {
+        public Temp dst;
+        public String className;
+
+        public New(Temp dst, String className) {
+            this.dst = dst;
+            this.className = className;
+        }
+
+        @Override public Temp def() { return dst; }
+        @Override public List<Temp> uses() { return List.of(); }
+        @Override public boolean isCall() { return true; }
+        @Override public void replaceDef(Temp temp) { dst = temp; }
+        @Override public void replaceUses(Map<Temp, Temp> replacements) { }
+
+        @Override
+        public String toString() {
+            return (dst == null ? "" : dst + " = ") + "new "
+                    + (className == null ? "SELF_TYPE" : className);
+        }
+    }
+
+    public static class Jump extends Instruction {
+        public BasicBlock target;
+
+        public Jump(BasicBlock target) {
+            this.target = target;
+        }
+
+        @Override public List<Temp> uses() { return List.of(); }
+        @Override public boolean isTerminator() { return true; }
+        @Override public List<BasicBlock> successors() { return List.of(target); }
+        @Override public void replaceUses(Map<Temp, Temp> replacements) { }
+
+        @Override
+        public void replaceSuccessor(BasicBlock from, BasicBlock to) {
+            target = replace(target, from, to);
+        }
+
+        @Override public String toString() { return "jump " + target.label; }
+    }
+
+    // Branches on a raw Bool, or on an object not being void.
+    public static class Branch extends Instruction {
+        public Temp cond;
+        public BasicBlock ifTrue, ifFalse;
+
+        public Branch(Temp cond, BasicBlock ifTrue, BasicBlock ifFalse) {
+            this.cond = cond;
+            this.ifTrue = ifTrue;
+            this.ifFalse = ifFalse;
+        }
+
+        @Override public List<Temp> uses() { return List.of(cond); }
+        @Override public boolean isTerminator() { return true; }
+        @Override public List<BasicBlock> successors() { return List.of(ifTrue, ifFalse); }
+        @Override public void replaceUses(Map<Temp, Temp> replacements) { cond = replace(cond, replacements); }
+
+        @Override
+        public void replaceSuccessor(BasicBlock from, BasicBlock to) {
+            ifTrue = replace(ifTrue, from, to);
+            ifFalse = replace(ifFalse, from, to);
+        }
+
+        @Override
+        public String toString() {
+            return "branch " + cond + " " + ifTrue.label + " " + ifFalse.label;
+        }
+    }
+
+    // Compares two raw values, or a raw value with a constant if right is
+    // null.
+    public static class CompareBranch extends Instruction {
+        public enum Op { LT, LE, GT, GE, EQ, NE }
+
+        public Op op;
+        public Temp left, right;
+        public int immediate;
+        public BasicBlock ifTrue, ifFalse;
+
+        public CompareBranch(Op op, Temp left, Temp right, BasicBlock ifTrue, BasicBlock ifFalse) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+            this.ifTrue = ifTrue;
+            this.ifFalse = ifFalse;
+        }
+
+        public CompareBranch(Op op, Temp left, int immediate, BasicBlock ifTrue, BasicBlock ifFalse) {
+            this(op, left, null, ifTrue, ifFalse);
+            this.immediate = immediate;
+        }
+
+        @Override
+        public List<Temp> uses() {
+            return right == null ? List.of(left) : List.of(left, right);
+        }
+
+        @Override public boolean isTerminator() { return true; }
+        @Override public List<BasicBlock> successors() { return List.of(ifTrue, ifFalse); }
+
+        @Override
+        public void replaceUses(Map<Temp, Temp> replacements) {
+            left = replace(left, replacements);
+            right = replace(right, replacements);
+        }
+
+        @Override
+        public void replaceSuccessor(BasicBlock from, BasicBlock to) {
+            ifTrue = replace(ifTrue, from, to);
+            ifFalse = replace(ifFalse, from, to);
+        }
+
+        @Override
+        public String toString() {
+            return "branch " + op + " " + left + " " + (right == null ? immediate : right)
+                    + " " + ifTrue.label + " " + ifFalse.label;
+        }
+    }
+
+    public static class Return extends Instruction {
+        public Temp value;
+
+        public Return(Temp value) {
+            this.value = value;
+        }
+
+        @Override public List<Temp> uses() { return List.of(value); }
+        @Override public boolean isTerminator() { return true; }
+        @Override public void replaceUses(Map<Temp, Temp> replacements) { value = replace(value, replacements); }
+        @Override public String toString() { return "return " + value; }
+    }
+
+    // Runtime errors of case expressions, and dispatches on void inlined
+    // away; control does not come back.
+    public static class Abort extends Instruction {
+        public enum Kind { CASE_VOID, CASE_NO_MATCH, DISPATCH_VOID }
+
+        public Kind kind;
+        public Temp value;
+        public String fileName;
+        public int line;
+
+        public Abort(Kind kind, Temp value, String fileName, int line) {
+            this.kind = kind;
+            this.value = value;
+            this.fileName = fileName;
+            this.line = line;
+        }
+
+        @Override public List<Temp> uses() { return List.of(value); }
+        @Override public boolean isTerminator() { return true; }
+        @Override public void replaceUses(Map<Temp, Temp> replacements) { value = replace(value, replacements); }
+        @Override public String toString() { return "abort " + kind + " " + value; }
+    }
+}
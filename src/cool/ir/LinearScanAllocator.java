@@ -0,0 +1,191 @@
+package cool.ir;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Linear scan register allocation (Poletto and Sarkar). Each temp gets one
+ * live interval over the instructions in layout order, from its first to
+ * its last position, stretched by the liveness sets at block boundaries so
+ * that values carried around loops stay live over the whole loop. The
+ * intervals are visited by increasing start; when no register is free, the
+ * interval that ends last is spilled to the frame. The destination of a
+ * copy takes the register of the source when it is free, which removes the
+ * copy if the source is not used afterwards.
+ *
+ * Calls clobber the caller-saved registers, so temps live across a call
+ * only get callee-saved ones. Which temps those are is found from the exact
+ * liveness at each call rather than from the intervals, which may span a
+ * call on a path the temp is not live on. Every instruction has two positions, one for
+ * reading its operands and one for writing its result, which lets the
+ * result take the register of an operand read for the last time.
+ *
+ * With spillAll set every temp goes to the frame instead, which gives the
+ * code of a stack machine to compare against.
+ */
+public class LinearScanAllocator {
+    // $s0 holds self; $t8, $t9, $v1 and $a0 are left for the code generator.
+    public static final List<String> CALLER_SAVED =
+            List.of("$t0", "$t1", "$t2", "$t3", "$t4", "$t5", "$t6", "$t7");
+    public static final List<String> CALLEE_SAVED =
+            List.of("$s1", "$s2", "$s3", "$s4", "$s5", "$s6", "$s7");
+
+    private static class Interval {
+        final Temp temp;
+        int start = Integer.MAX_VALUE;
+        int end = -1;
+        boolean crossesCall;
+        String register;
+        // Source of a copy into the temp, whose register it would rather
+        // take over.
+        Interval hint;
+
+        Interval(Temp temp) {
+            this.temp = temp;
+        }
+
+        void extend(int position) {
+            start = Math.min(start, position);
+            end = Math.max(end, position);
+        }
+    }
+
+    private final boolean spillAll;
+
+    public LinearScanAllocator(boolean spillAll) {
+        this.spillAll = spillAll;
+    }
+
+    public Allocation allocate(Function function) {
+        var allocation = new Allocation();
+        var intervals = buildIntervals(function);
+        if (spillAll) {
+            for (var interval : intervals)
+                allocation.spill(interval.temp);
+            return allocation;
+        }
+        intervals.sort(Comparator.comparingInt(interval -> interval.start));
+
+        // Intervals holding a register, by increasing end.
+        var active = new ArrayList<Interval>();
+        var free = new ArrayList<String>(CALLER_SAVED);
+        free.addAll(CALLEE_SAVED);
+
+        for (var current : intervals) {
+            while (!active.isEmpty() && active.get(0).end < current.start)
+                free.add(active.remove(0).register);
+
+            var register = pickFree(free, current);
+            if (register != null) {
+                free.remove(register);
+            } else {
+                var victim = pickVictim(active, current);
+                if (victim == null || victim.end <= current.end) {
+                    allocation.spill(current.temp);
+                    continue;
+                }
+                register = victim.register;
+                active.remove(victim);
+                allocation.spill(victim.temp);
+            }
+
+            current.register = register;
+            allocation.assign(current.temp, register);
+            if (CALLEE_SAVED.contains(register))
+                allocation.useCalleeSaved(register);
+
+            int index = 0;
+            while (index < active.size() && active.get(index).end <= current.end)
+                index++;
+            active.add(index, current);
+        }
+        return allocation;
+    }
+
+    // Caller-saved registers first, so the callee-saved ones are left for
+    // the temps that need them.
+    private static String pickFree(List<String> free, Interval interval) {
+        var hint = interval.hint;
+        if (hint != null && hint.register != null && free.contains(hint.register)
+                && (!interval.crossesCall || CALLEE_SAVED.contains(hint.register)))
+            return hint.register;
+
+        String best = null;
+        for (var register : free) {
+            boolean calleeSaved = CALLEE_SAVED.contains(register);
+            if (interval.crossesCall && !calleeSaved)
+                continue;
+            if (best == null || (!calleeSaved && CALLEE_SAVED.contains(best)))
+                best = register;
+        }
+        return best;
+    }
+
+    private static Interval pickVictim(List<Interval> active, Interval interval) {
+        for (int i = active.size() - 1; i >= 0; i--) {
+            var candidate = active.get(i);
+            if (!interval.crossesCall || CALLEE_SAVED.contains(candidate.register))
+                return candidate;
+        }
+        return null;
+    }
+
+    private static List<Interval> buildIntervals(Function function) {
+        var liveness = new Liveness(function);
+        var byId = new Interval[function.tempCount()];
+        for (var block : function.blocks)
+            for (var instruction : block.instructions) {
+                var def = instruction.def();
+                if (def != null && byId[def.id] == null)
+                    byId[def.id] = new Interval(def);
+                for (var use : instruction.uses())
+                    if (byId[use.id] == null)
+                        byId[use.id] = new Interval(use);
+                if (instruction instanceof Instruction.Copy && byId[def.id].hint == null)
+                    byId[def.id].hint = byId[((Instruction.Copy) instruction).src.id];
+            }
+
+        // Operands are read at 2i, the result is written at 2i + 1.
+        int index = 0;
+        for (var block : function.blocks) {
+            int first = 2 * index;
+            int last = 2 * (index + block.instructions.size()) - 1;
+            liveness.liveIn(block).stream().forEach(id -> byId[id].extend(first));
+            liveness.liveOut(block).stream().forEach(id -> byId[id].extend(last));
+            for (var instruction : block.instructions) {
+                for (var use : instruction.uses())
+                    byId[use.id].extend(2 * index);
+                if (instruction.def() != null)
+                    byId[instruction.def().id].extend(2 * index + 1);
+                index++;
+            }
+        }
+
+        // The temps live right after each call, other than its result,
+        // found by walking each block backwards from its live-out set.
+        var crossing = new BitSet();
+        for (var block : function.blocks) {
+            var live = (BitSet) liveness.liveOut(block).clone();
+            for (int i = block.instructions.size() - 1; i >= 0; i--) {
+                var instruction = block.instructions.get(i);
+                if (instruction.def() != null)
+                    live.clear(instruction.def().id);
+                if (instruction.isCall())
+                    crossing.or(live);
+                for (var use : instruction.uses())
+                    live.set(use.id);
+            }
+        }
+
+        var intervals = new ArrayList<Interval>();
+        for (var interval : byId) {
+            if (interval == null || interval.temp == function.self)
+                continue;
+            interval.crossesCall = crossing.get(interval.temp.id);
+            intervals.add(interval);
+        }
+        return intervals;
+    }
+}
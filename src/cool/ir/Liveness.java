@@ -0,0 +1,66 @@
+package cool.ir;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The temps live on entry to and on exit from each block of a function, as
+ * sets of temp ids. Computed by the usual backward data flow, iterated until
+ * nothing changes.
+ */
+public class Liveness {
+    private final Map<BasicBlock, BitSet> liveIn = new HashMap<>();
+    private final Map<BasicBlock, BitSet> liveOut = new HashMap<>();
+
+    public Liveness(Function function) {
+        // Temps read before being written in each block, and temps written.
+        var used = new HashMap<BasicBlock, BitSet>();
+        var defined = new HashMap<BasicBlock, BitSet>();
+        for (var block : function.blocks) {
+            var blockUsed = new BitSet();
+            var blockDefined = new BitSet();
+            for (var instruction : block.instructions) {
+                for (var use : instruction.uses())
+                    if (!blockDefined.get(use.id))
+                        blockUsed.set(use.id);
+                var def = instruction.def();
+                if (def != null)
+                    blockDefined.set(def.id);
+            }
+            used.put(block, blockUsed);
+            defined.put(block, blockDefined);
+            liveIn.put(block, new BitSet());
+            liveOut.put(block, new BitSet());
+        }
+
+        // Going backwards, most blocks see the final state of their
+        // successors on the first round.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = function.blocks.size() - 1; i >= 0; i--) {
+                var block = function.blocks.get(i);
+                var out = liveOut.get(block);
+                for (var successor : block.successors())
+                    out.or(liveIn.get(successor));
+
+                var in = (BitSet) out.clone();
+                in.andNot(defined.get(block));
+                in.or(used.get(block));
+                if (!in.equals(liveIn.get(block))) {
+                    liveIn.put(block, in);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    public BitSet liveIn(BasicBlock block) {
+        return liveIn.get(block);
+    }
+
+    public BitSet liveOut(BasicBlock block) {
+        return liveOut.get(block);
+    }
+}
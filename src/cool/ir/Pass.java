@@ -0,0 +1,10 @@
+package cool.ir;
+
+/**
+ * An optimization of the intermediate code, run by a {@link PassManager} on
+ * functions in SSA form.
+ */
+public interface Pass {
+    // True if the function was changed.
+    boolean run(Function function);
+}
@@ -0,0 +1,38 @@
+package cool.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the optimization passes on a function between building its SSA form
+ * and leaving it. The passes are run in order, and run again while one of
+ * them changes the function, since each may open up work for the others.
+ */
+public class PassManager {
+    // Bounds the rounds over the passes; most functions settle in two.
+    private static final int MAX_ROUNDS = 8;
+
+    private final List<Pass> passes = new ArrayList<>();
+
+    public PassManager add(Pass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    public void run(Function function) {
+        SSA.construct(function);
+        optimize(function);
+        SSA.destruct(function);
+    }
+
+    // Runs the passes on a function already in SSA form, leaving it so.
+    public void optimize(Function function) {
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            boolean changed = false;
+            for (var pass : passes)
+                changed |= pass.run(function);
+            if (!changed)
+                break;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package cool.ir;
+
+import cool.ir.Instruction.Copy;
+import cool.ir.Instruction.Jump;
+import cool.ir.Instruction.Phi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Conversion of a function to static single assignment form and back.
+ *
+ * The temps written more than once, which are the variables assigned in the
+ * method and the results of conditionals and cases, get a phi at each block
+ * of the iterated dominance frontier of their definitions where they are
+ * live, and every definition is then renamed to a new temp by a walk of the
+ * dominator tree (Cytron et al.). Coming out of SSA, each phi becomes a copy
+ * at the end of each predecessor, after splitting the edges from blocks
+ * with more than one successor.
+ */
+public class SSA {
+
+    public static void construct(Function function) {
+        function.removeUnreachableBlocks();
+
+        // Blocks writing each temp written more than once.
+        var definitions = new HashMap<Temp, Set<BasicBlock>>();
+        var defCounts = new int[function.tempCount()];
+        for (var block : function.blocks)
+            for (var instruction : block.instructions) {
+                var def = instruction.def();
+                if (def == null)
+                    continue;
+                definitions.computeIfAbsent(def, temp -> new HashSet<>()).add(block);
+                defCounts[def.id]++;
+            }
+        definitions.keySet().removeIf(temp -> defCounts[temp.id] < 2);
+        if (definitions.isEmpty())
+            return;
+
+        var dominators = new Dominators(function);
+        var liveness = new Liveness(function);
+        var phiVariables = new HashMap<Phi, Temp>();
+        definitions.forEach((variable, blocks) -> {
+            var work = new ArrayDeque<>(blocks);
+            var placed = new HashSet<BasicBlock>();
+            while (!work.isEmpty()) {
+                for (var join : dominators.frontier(work.pop())) {
+                    if (placed.contains(join) || !liveness.liveIn(join).get(variable.id))
+                        continue;
+                    var phi = new Phi(variable);
+                    join.instructions.add(0, phi);
+                    phiVariables.put(phi, variable);
+                    placed.add(join);
+                    if (!blocks.contains(join))
+                        work.push(join);
+                }
+            }
+        });
+
+        var stacks = new HashMap<Temp, Deque<Temp>>();
+        for (var variable : definitions.keySet())
+            stacks.put(variable, new ArrayDeque<>());
+        rename(function, function.entry(), dominators, stacks, phiVariables);
+    }
+
+    private static void rename(Function function, BasicBlock block, Dominators dominators,
+                               Map<Temp, Deque<Temp>> stacks, Map<Phi, Temp> phiVariables) {
+        var current = new HashMap<Temp, Temp>();
+        stacks.forEach((variable, stack) -> {
+            if (!stack.isEmpty())
+                current.put(variable, stack.peek());
+        });
+
+        var pushed = new ArrayList<Temp>();
+        for (var instruction : block.instructions) {
+            if (!(instruction instanceof Phi))
+                instruction.replaceUses(current);
+            var def = instruction.def();
+            if (def == null)
+                continue;
+            var variable = instruction instanceof Phi ? phiVariables.get(instruction) : def;
+            var stack = stacks.get(variable);
+            if (stack == null)
+                continue;
+            var renamed = function.newTemp(def);
+            instruction.replaceDef(renamed);
+            stack.push(renamed);
+            current.put(variable, renamed);
+            pushed.add(variable);
+        }
+
+        for (var successor : block.successors())
+            for (var instruction : successor.instructions) {
+                if (!(instruction instanceof Phi))
+                    break;
+                var phi = (Phi) instruction;
+                var variable = phiVariables.get(phi);
+                phi.args.put(block, current.getOrDefault(variable, variable));
+            }
+
+        for (var child : dominators.children(block))
+            rename(function, child, dominators, stacks, phiVariables);
+        for (var variable : pushed)
+            stacks.get(variable).pop();
+    }
+
+    public static void destruct(Function function) {
+        var predecessors = function.predecessors();
+        for (var block : new ArrayList<>(function.blocks)) {
+            var phis = new ArrayList<Phi>();
+            for (var instruction : block.instructions) {
+                if (!(instruction instanceof Phi))
+                    break;
+                phis.add((Phi) instruction);
+            }
+            if (phis.isEmpty())
+                continue;
+
+            for (var predecessor : new LinkedHashSet<>(predecessors.get(block))) {
+                var end = predecessor;
+                if (new HashSet<>(predecessor.successors()).size() > 1)
+                    end = splitEdge(function, predecessor, block);
+                var copies = new ArrayList<Copy>();
+                for (var phi : phis) {
+                    var value = phi.args.get(predecessor);
+                    if (value != phi.dst)
+                        copies.add(new Copy(phi.dst, value));
+                }
+                insertBeforeTerminator(end, sequential(function, copies));
+            }
+            block.instructions.removeAll(phis);
+        }
+    }
+
+    // An empty block on the edge, laid out right after its source.
+    private static BasicBlock splitEdge(Function function, BasicBlock from, BasicBlock to) {
+        var block = new BasicBlock(from.label + "_" + to.label);
+        block.add(new Jump(to));
+        from.terminator().replaceSuccessor(to, block);
+        function.blocks.add(function.blocks.indexOf(from) + 1, block);
+        return block;
+    }
+
+    // The copies of a phi are made at the same time; when one of them reads
+    // what another writes, every value is first copied to a new temp.
+    private static List<Copy> sequential(Function function, List<Copy> copies) {
+        var written = new HashSet<Temp>();
+        for (var copy : copies)
+            written.add(copy.dst);
+        if (copies.stream().noneMatch(copy -> written.contains(copy.src)))
+            return copies;
+
+        var result = new ArrayList<Copy>();
+        var staged = new ArrayList<Temp>();
+        for (var copy : copies) {
+            var temp = function.newTemp(copy.dst);
+            result.add(new Copy(temp, copy.src));
+            staged.add(temp);
+        }
+        for (int i = 0; i < copies.size(); i++)
+            result.add(new Copy(copies.get(i).dst, staged.get(i)));
+        return result;
+    }
+
+    private static void insertBeforeTerminator(BasicBlock block, List<Copy> copies) {
+        block.instructions.addAll(block.instructions.size() - 1, copies);
+    }
+}
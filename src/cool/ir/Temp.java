@@ -0,0 +1,35 @@
+package cool.ir;
+
+import cool.structures.TypeSymbol;
+
+/**
+ * A virtual register of the intermediate code. OBJECT temps hold pointers to
+ * Cool objects, or 0 for void; INT and BOOL temps hold the value of an Int or
+ * a Bool directly, without the object around it.
+ *
+ * Every temp also has the static Cool type of its value: the value is an
+ * object of that class or of a subclass, or void. SELF_TYPE does not appear
+ * here; it is given as the class of the method.
+ */
+public class Temp {
+    public enum Kind { OBJECT, INT, BOOL }
+
+    public final int id;
+    public final Kind kind;
+    public final TypeSymbol type;
+
+    Temp(int id, Kind kind, TypeSymbol type) {
+        this.id = id;
+        this.kind = kind;
+        this.type = type;
+    }
+
+    public boolean isRaw() {
+        return kind != Kind.OBJECT;
+    }
+
+    @Override
+    public String toString() {
+        return "%" + id;
+    }
+}
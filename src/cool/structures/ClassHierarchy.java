@@ -0,0 +1,204 @@
+package cool.structures;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inheritance tree of all the classes in the global scope, built once after
+ * the definition pass.
+ *
+ * Every class is numbered in DFS pre- and post-order, so that a class is a
+ * subclass of another exactly when its interval nests inside the other's,
+ * which makes subtype checks constant time. Classes whose parent is undefined
+ * or which are part of an inheritance cycle are hung under Object, so queries
+ * always terminate; the errors themselves are reported by the resolution pass.
+ */
+public class ClassHierarchy {
+    private final TypeSymbol root;
+
+    // Classes in DFS preorder.
+    private final List<TypeSymbol> classes = new ArrayList<>();
+
+    // ancestors[k][i] is the 2^k-th ancestor of the class with preorder
+    // number i, or the root if there are fewer ancestors than that.
+    private TypeSymbol[][] ancestors;
+
+    // Least common ancestors computed so far, keyed by the preorder numbers
+    // of the two classes, the smaller one first. Classes may be type checked
+    // in parallel, so it is filled concurrently.
+    private final Map<Long, TypeSymbol> lcaCache = new ConcurrentHashMap<>();
+
+    public ClassHierarchy(SymbolTable symbolTable) {
+        root = symbolTable.objectType;
+
+        var types = new ArrayList<TypeSymbol>();
+        for (var sym : symbolTable.globals.getSymbols())
+            types.add((TypeSymbol) sym);
+
+        linkParents(symbolTable, types);
+
+        var children = new HashMap<TypeSymbol, List<TypeSymbol>>();
+        for (var type : types)
+            if (type.parentType != null)
+                children.computeIfAbsent(type.parentType, t -> new ArrayList<>()).add(type);
+
+        number(children);
+        buildAncestorTable();
+    }
+
+    // Resolves the superclass names, detecting inheritance cycles on the way.
+    private void linkParents(SymbolTable symbolTable, List<TypeSymbol> types) {
+        var declaredParents = new HashMap<TypeSymbol, TypeSymbol>();
+        for (var type : types)
+            if (type != root && type.superClass != null)
+                declaredParents.put(type, (TypeSymbol) symbolTable.globals.lookup(type.superClass));
+
+        // 1 = on the current path, 2 = done
+        var state = new HashMap<TypeSymbol, Integer>();
+        var path = new ArrayList<TypeSymbol>();
+        for (var type : types) {
+            var current = type;
+            while (current != null && !state.containsKey(current)) {
+                state.put(current, 1);
+                path.add(current);
+                current = declaredParents.get(current);
+            }
+
+            // The walk came back to a class on its own path.
+            if (current != null && state.get(current) == 1)
+                for (int i = path.indexOf(current); i < path.size(); i++)
+                    path.get(i).inCycle = true;
+
+            for (var sym : path)
+                state.put(sym, 2);
+            path.clear();
+        }
+
+        for (var type : types) {
+            var parent = declaredParents.get(type);
+            if (type == root)
+                type.parentType = null;
+            else if (type.inCycle || parent == null)
+                type.parentType = root;
+            else
+                type.parentType = parent;
+        }
+    }
+
+    // Iterative DFS, so that deep hierarchies do not overflow the stack.
+    private void number(Map<TypeSymbol, List<TypeSymbol>> children) {
+        int postorder = 0;
+        var stack = new ArrayDeque<TypeSymbol>();
+        var childIndex = new HashMap<TypeSymbol, Integer>();
+
+        root.depth = 0;
+        root.preorder = classes.size();
+        classes.add(root);
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            var type = stack.peek();
+            var kids = children.getOrDefault(type, List.of());
+            int next = childIndex.getOrDefault(type, 0);
+            if (next < kids.size()) {
+                childIndex.put(type, next + 1);
+                var child = kids.get(next);
+                child.depth = type.depth + 1;
+                child.preorder = classes.size();
+                classes.add(child);
+                stack.push(child);
+            } else {
+                type.postorder = postorder++;
+                stack.pop();
+            }
+        }
+    }
+
+    // Binary lifting table, for logarithmic time common ancestor queries.
+    private void buildAncestorTable() {
+        int maxDepth = 0;
+        for (var type : classes)
+            maxDepth = Math.max(maxDepth, type.depth);
+
+        int levels = 1;
+        while ((1 << levels) <= maxDepth)
+            levels++;
+
+        ancestors = new TypeSymbol[levels][classes.size()];
+        for (var type : classes)
+            ancestors[0][type.preorder] = type == root ? root : type.parentType;
+        for (int k = 1; k < levels; k++)
+            for (int i = 0; i < classes.size(); i++)
+                ancestors[k][i] = ancestors[k - 1][ancestors[k - 1][i].preorder];
+    }
+
+    /**
+     * @return whether {@code type} is {@code ancestor} or one of its
+     *         subclasses.
+     */
+    public boolean isSubClass(TypeSymbol ancestor, TypeSymbol type) {
+        if (ancestor == null)
+            return false;
+        return ancestor.preorder <= type.preorder && type.postorder <= ancestor.postorder;
+    }
+
+    /**
+     * @return the most specific class having both {@code t1} and {@code t2}
+     *         as subclasses.
+     */
+    public TypeSymbol leastCommonAncestor(TypeSymbol t1, TypeSymbol t2) {
+        if (isSubClass(t1, t2))
+            return t1;
+        if (isSubClass(t2, t1))
+            return t2;
+
+        long key = t1.preorder < t2.preorder
+                ? (long) t1.preorder << 32 | t2.preorder
+                : (long) t2.preorder << 32 | t1.preorder;
+        return lcaCache.computeIfAbsent(key, k -> liftToCommonAncestor(t1, t2));
+    }
+
+    // Climbs from t1 to its highest ancestor that is not above t2, whose
+    // parent is then the common ancestor.
+    private TypeSymbol liftToCommonAncestor(TypeSymbol t1, TypeSymbol t2) {
+        for (int k = ancestors.length - 1; k >= 0; k--) {
+            var ancestor = ancestors[k][t1.preorder];
+            if (!isSubClass(ancestor, t2))
+                t1 = ancestor;
+        }
+        return t1.parentType;
+    }
+
+    /**
+     * @return {@code type} and all its subclasses, each one after its
+     *         superclass.
+     */
+    public List<TypeSymbol> getSubClasses(TypeSymbol type) {
+        // A subtree is a contiguous run of the preorder.
+        int end = type.preorder + 1;
+        while (end < classes.size() && isSubClass(type, classes.get(end)))
+            end++;
+        return classes.subList(type.preorder, end);
+    }
+
+    public TypeSymbol getParent(TypeSymbol type) {
+        return type.parentType;
+    }
+
+    /**
+     * @return whether {@code type} is itself part of an inheritance cycle.
+     */
+    public boolean isInCycle(TypeSymbol type) {
+        return type.inCycle;
+    }
+
+    /**
+     * @return all the classes, each one after its superclass.
+     */
+    public List<TypeSymbol> getClasses() {
+        return classes;
+    }
+}
@@ -1,15 +1,23 @@
 package cool.structures;
 
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 public class DefaultScope implements Scope {
-
     private Map<String, Symbol> symbols = new LinkedHashMap<>();
 
     private Scope parent;
 
+    // Counts the scopes searched by lookups, for --stats; null if not counting.
+    private final LongAdder lookups;
+
     public DefaultScope(Scope parent) {
+        this(parent, null);
+    }
+
+    public DefaultScope(Scope parent, LongAdder lookups) {
         this.parent = parent;
+        this.lookups = lookups;
     }
 
     @Override
@@ -25,6 +33,8 @@ public class DefaultScope implements Scope {
 
     @Override
     public Symbol lookup(String name) {
+        if (lookups != null)
+            lookups.increment();
         var sym = symbols.get(name);
 
         if (sym != null)
@@ -36,6 +46,18 @@ public class DefaultScope implements Scope {
         return null;
     }
 
+    // Looks the name up in this scope only, ignoring the parent.
+    public Symbol lookupLocal(String name) {
+        if (lookups != null)
+            lookups.increment();
+        return symbols.get(name);
+    }
+
+    // Symbols defined in this scope, in the order they were added.
+    public Collection<Symbol> getSymbols() {
+        return symbols.values();
+    }
+
     @Override
     public Scope getParent() {
         return parent;
@@ -0,0 +1,69 @@
+package cool.structures;
+
+import java.io.File;
+
+/**
+ * An error found in a source file, at a line and column counted from 1.
+ * Errors not tied to a place in a file have a null file.
+ *
+ * All the diagnostics of Cool are errors, so their kind, the phase that
+ * found them, stands for the severity.
+ */
+public record Diagnostic(String file, int line, int column, Kind kind, String message) {
+    public enum Kind {
+        LEXICAL("Lexical error"),
+        SYNTAX("Syntax error"),
+        SEMANTIC("Semantic error");
+
+        final String label;
+
+        Kind(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * @return the diagnostic as the compiler prints it, with the name of its
+     *         file without the directories.
+     */
+    @Override
+    public String toString() {
+        var text = new StringBuilder();
+        appendText(text, file == null ? null : new File(file).getName());
+        return text.toString();
+    }
+
+    void appendText(StringBuilder out, String fileName) {
+        if (file != null)
+            out.append('"').append(fileName).append("\", line ").append(line)
+                    .append(':').append(column).append(", ");
+        out.append(kind.label).append(": ").append(message);
+    }
+
+    void appendJson(StringBuilder out, String fileName) {
+        out.append("{\"file\":");
+        if (file == null)
+            out.append("null");
+        else
+            appendJsonString(out, fileName);
+        out.append(",\"line\":").append(line)
+                .append(",\"column\":").append(column)
+                .append(",\"kind\":\"").append(kind.name().toLowerCase())
+                .append("\",\"message\":");
+        appendJsonString(out, message);
+        out.append('}');
+    }
+
+    private static void appendJsonString(StringBuilder out, String string) {
+        out.append('"');
+        for (char c : string.toCharArray()) {
+            if (c == '"' || c == '\\')
+                out.append('\\').append(c);
+            else if (c < ' ')
+                out.append(String.format("\\u%04x", (int) c));
+            else
+                out.append(c);
+        }
+        out.append('"');
+    }
+}
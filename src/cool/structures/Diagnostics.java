@@ -0,0 +1,90 @@
+package cool.structures;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Diagnostics of a single compilation, collected from any thread and printed
+ * in batches, as text or as one JSON object per line.
+ *
+ * The order in which they are printed does not depend on the threads that
+ * found them. Each one belongs to a group, a run of diagnostics reported by
+ * one thread at a time, such as those of a file being parsed or of a class
+ * being checked; groups are printed in the order they were made, and the
+ * diagnostics of a group in the order they were reported. A diagnostic
+ * reported outside of any group is a group of its own.
+ */
+public class Diagnostics {
+    private final ConcurrentLinkedQueue<Entry> pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong groups = new AtomicLong();
+
+    private final PrintStream out;
+    private final boolean json;
+
+    // File names without their directories, by path.
+    private final HashMap<String, String> fileNames = new HashMap<>();
+
+    private record Entry(long group, int index, Diagnostic diagnostic) {
+    }
+
+    private static final Comparator<Entry> ORDER =
+            Comparator.comparingLong(Entry::group).thenComparingInt(Entry::index);
+
+    public class Group {
+        private final long ordinal = groups.getAndIncrement();
+        private int reported;
+
+        public void report(Diagnostic diagnostic) {
+            pending.add(new Entry(ordinal, reported++, diagnostic));
+        }
+    }
+
+    public Diagnostics(PrintStream out, boolean json) {
+        this.out = out;
+        this.json = json;
+    }
+
+    /**
+     * @return a group whose diagnostics are printed after those of all the
+     *         groups made before it.
+     */
+    public Group group() {
+        return new Group();
+    }
+
+    public void report(Diagnostic diagnostic) {
+        group().report(diagnostic);
+    }
+
+    /**
+     * Prints the diagnostics reported so far, all at once. Must not run
+     * concurrently with the reporting of the diagnostics it prints.
+     */
+    public void flush() {
+        var entries = new ArrayList<Entry>();
+        for (Entry entry; (entry = pending.poll()) != null; )
+            entries.add(entry);
+        if (entries.isEmpty())
+            return;
+        entries.sort(ORDER);
+
+        var text = new StringBuilder();
+        for (var entry : entries) {
+            var diagnostic = entry.diagnostic;
+            var fileName = diagnostic.file() == null
+                    ? null : fileNames.computeIfAbsent(diagnostic.file(), file -> new File(file).getName());
+            if (json)
+                diagnostic.appendJson(text, fileName);
+            else
+                diagnostic.appendText(text, fileName);
+            text.append(System.lineSeparator());
+        }
+        out.print(text);
+    }
+}
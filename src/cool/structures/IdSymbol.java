@@ -1,8 +1,20 @@
 package cool.structures;
 
 public class IdSymbol extends Symbol {
+    // Locul în care se află valoarea identificatorului la execuție.
+    public enum Storage { ATTRIBUTE, FORMAL, LOCAL }
+
     // Fiecare identificator posedă un tip.
     public String type;
+    // Simbolul tipului, rezolvat o singură dată; null dacă tipul nu e definit.
+    public TypeSymbol typeSymbol;
+    // Indicele în obiect (atribute) sau poziția parametrului (formali),
+    // atribuit de NameBindingVisitor.
+    public Storage storage;
+    public int slot;
+    // Adevărat dacă variabila primește o valoare nouă undeva în corpul
+    // metodei.
+    public boolean assigned;
     
     public IdSymbol(String name) {
         super(name);
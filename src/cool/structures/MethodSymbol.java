@@ -2,6 +2,7 @@ package cool.structures;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 // O functie este atât simbol, cât și domeniu de vizibilitate pentru parametrii
 // săi formali.
@@ -13,8 +14,14 @@ public class MethodSymbol extends IdSymbol implements Scope {
     // LinkedHashMap reține ordinea adăugării.
     protected Map<String, Symbol> formals = new LinkedHashMap<>();
     
+    // Clasa care definește metoda și indicele ei în tabela de dispatch,
+    // același cu al metodei suprascrise.
     protected TypeSymbol classParent;
+    public int dispatchSlot;
     Scope parent;
+
+    // Counts the scopes searched by lookups, for --stats; null if not counting.
+    private LongAdder lookups;
     
     public MethodSymbol(Scope parent, String name, TypeSymbol returnType) {
         super(name);
@@ -24,10 +31,18 @@ public class MethodSymbol extends IdSymbol implements Scope {
         super(name);
         this.parent = parent;
     }
+    public MethodSymbol(Scope parent, String name, LongAdder lookups) {
+        this(parent, name);
+        this.lookups = lookups;
+    }
     public Map<String, Symbol> getFormals() {
         return formals;
     }
 
+    public TypeSymbol getDefiningClass() {
+        return classParent;
+    }
+
     @Override
     public boolean add(Symbol sym) {
         // Reject duplicates in the same scope.
@@ -41,6 +56,8 @@ public class MethodSymbol extends IdSymbol implements Scope {
 
     @Override
     public Symbol lookup(String name) {
+        if (lookups != null)
+            lookups.increment();
         var sym = formals.get(name);
 
         if (sym != null)
@@ -53,6 +70,8 @@ public class MethodSymbol extends IdSymbol implements Scope {
     }
 
     public Symbol lookupFormal(String name) {
+        if (lookups != null)
+            lookups.increment();
         return formals.get(name);
     }
 
@@ -0,0 +1,25 @@
+package cool.structures;
+
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Line and column of a token, packed into a long, so that the AST can point
+ * into the source without holding on to the tokens and the parse tree.
+ * Columns are counted from 1, as in error messages.
+ */
+public final class Position {
+    private Position() {
+    }
+
+    public static long of(Token token) {
+        return (long) token.getLine() << 32 | (token.getCharPositionInLine() + 1);
+    }
+
+    public static int line(long position) {
+        return (int) (position >>> 32);
+    }
+
+    public static int column(long position) {
+        return (int) position;
+    }
+}
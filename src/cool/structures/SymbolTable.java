@@ -1,69 +1,111 @@
 package cool.structures;
 
-import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
-import org.antlr.v4.runtime.*;
+/**
+ * Symbols of a single compilation. Every compilation owns its own table,
+ * including the basic classes, so that several of them may run at once.
+ */
+public class SymbolTable {
+    public final DefaultScope globals;
 
-import cool.compiler.Compiler;
-import cool.parser.CoolParser;
+    // Built after the definition pass, once all classes are known.
+    public ClassHierarchy hierarchy;
 
-public class SymbolTable {
-    public static Scope globals;
+    private volatile boolean semanticErrors;
+
+    // Names of the files in which semantic errors were found.
+    private final Set<String> filesWithErrors = ConcurrentHashMap.newKeySet();
+
+    // Symboluri aferente tipurilor, definite global
+    public final TypeSymbol intType;
+    public final TypeSymbol stringType;
+    public final TypeSymbol boolType;
+    public final TypeSymbol objectType;
+    public final TypeSymbol ioType;
+
+    public final TypeSymbol selfType;
+
+    // Scopes searched by lookups in the scopes of this table, for --stats;
+    // null unless counting, so that lookups cost nothing more otherwise.
+    private final LongAdder lookups;
+
+    // Names of the source files, by index.
+    private final List<String> files;
 
-    private static boolean semanticErrors;
+    // Destination of error messages.
+    private final Diagnostics diagnostics;
 
-    public static void defineBasicClasses() {
-        globals = new DefaultScope(null);
-        semanticErrors = false;
+    public SymbolTable(List<String> files, Diagnostics diagnostics) {
+        this(files, diagnostics, false);
+    }
 
-        // TODO Populate global scope.
+    public SymbolTable(List<String> files, Diagnostics diagnostics, boolean countLookups) {
+        this.files = files;
+        this.diagnostics = diagnostics;
+        lookups = countLookups ? new LongAdder() : null;
+        globals = new DefaultScope(null, lookups);
+        intType = newType("Int");
+        stringType = newType("String");
+        boolType = newType("Bool");
+        objectType = newType("Object");
+        ioType = newType("IO");
+        selfType = newType("SELF_TYPE");
+        defineBasicClasses();
+    }
 
-        globals.add(TypeSymbol.OBJECT);
-        globals.add(TypeSymbol.IO);
-        globals.add(TypeSymbol.INT);
-        globals.add(TypeSymbol.STRING);
-        globals.add(TypeSymbol.SELFTYPE);
-        globals.add(TypeSymbol.BOOL);
+    private void defineBasicClasses() {
+        globals.add(objectType);
+        globals.add(ioType);
+        globals.add(intType);
+        globals.add(stringType);
+        globals.add(selfType);
+        globals.add(boolType);
 
-        var abortFun = new MethodSymbol(TypeSymbol.OBJECT, "abort", TypeSymbol.OBJECT);
-        TypeSymbol.OBJECT.methodsScope.add(abortFun);
+        var abortFun = newMethod(objectType, "abort");
+        objectType.methodsScope.add(abortFun);
         abortFun.type = "Object";
-        var typenameFun = new MethodSymbol(TypeSymbol.OBJECT, "type_name", TypeSymbol.STRING);
-        TypeSymbol.OBJECT.methodsScope.add(typenameFun);
+        var typenameFun = newMethod(objectType, "type_name");
+        objectType.methodsScope.add(typenameFun);
         typenameFun.type = "String";
-        var copyFun = new MethodSymbol(TypeSymbol.OBJECT, "copy", TypeSymbol.SELFTYPE);
+        var copyFun = newMethod(objectType, "copy");
         copyFun.type = "SELF_TYPE";
-        TypeSymbol.OBJECT.methodsScope.add(copyFun);
+        objectType.methodsScope.add(copyFun);
 
-        var outstringFun = new MethodSymbol(TypeSymbol.IO, "out_string", TypeSymbol.SELFTYPE);
-        TypeSymbol.IO.methodsScope.add(outstringFun);
+        var outstringFun = newMethod(ioType, "out_string");
+        ioType.methodsScope.add(outstringFun);
         outstringFun.type = "IO";
         IdSymbol outstringFormal = new IdSymbol("x");
         outstringFormal.type = "String";
         outstringFun.formals.put(outstringFormal.name, outstringFormal);
-        var outintFun = new MethodSymbol(TypeSymbol.IO, "out_int", TypeSymbol.SELFTYPE);
-        TypeSymbol.IO.methodsScope.add(outintFun);
+        var outintFun = newMethod(ioType, "out_int");
+        ioType.methodsScope.add(outintFun);
         outintFun.type = "IO";
         IdSymbol outintFormal = new IdSymbol("x");
         outintFormal.type = "Int";
         outintFun.formals.put(outintFormal.name, outintFormal);
-        var inintFun = new MethodSymbol(TypeSymbol.IO, "in_int", TypeSymbol.INT);
-        TypeSymbol.IO.methodsScope.add(inintFun);
+        var inintFun = newMethod(ioType, "in_int");
+        ioType.methodsScope.add(inintFun);
         inintFun.type = "Int";
-        var instringFun = new MethodSymbol(TypeSymbol.IO, "in_string", TypeSymbol.STRING);
+        var instringFun = newMethod(ioType, "in_string");
         instringFun.type = "String";
-        TypeSymbol.IO.methodsScope.add(instringFun);
+        ioType.methodsScope.add(instringFun);
 
-        var lengthFun = new MethodSymbol(TypeSymbol.STRING, "length", TypeSymbol.INT);
-        TypeSymbol.STRING.methodsScope.add(lengthFun);
+        var lengthFun = newMethod(stringType, "length");
+        stringType.methodsScope.add(lengthFun);
         lengthFun.type = "Int";
-        var concat = new MethodSymbol(TypeSymbol.STRING, "concat", TypeSymbol.STRING);
+        var concat = newMethod(stringType, "concat");
         IdSymbol concatFormal = new IdSymbol("s");
         concatFormal.type = "String";
         concat.formals.put("s",concatFormal);
         concat.type = "String";
-        TypeSymbol.STRING.methodsScope.add(concat);
-        var substr = new MethodSymbol(TypeSymbol.STRING, "substr", TypeSymbol.STRING);
+        stringType.methodsScope.add(concat);
+        var substr = newMethod(stringType, "substr");
         IdSymbol substrFormal_1 = new IdSymbol("i");
         substrFormal_1.type = "Int";
         IdSymbol substrFormal_2 = new IdSymbol("l");
@@ -71,70 +113,161 @@ public class SymbolTable {
         substr.formals.put("i",substrFormal_1);
         substr.formals.put("l",substrFormal_2);
         substr.type = "String";
-        TypeSymbol.STRING.methodsScope.add(substr);
+        stringType.methodsScope.add(substr);
 
     }
 
     /**
-     * Displays a semantic error message.
-     *
-     * @param ctx  Used to determine the enclosing class context of this error,
-     *             which knows the file name in which the class was defined.
-     * @param info Used for line and column information.
-     * @param str  The error message.
+     * Resolves the declared types of all attributes, methods and formal
+     * parameters to their symbols, once every class is defined, so that the
+     * resolution pass does not have to look them up by name.
      */
-    public static void error(ParserRuleContext ctx, Token info, String str) {
-        while (! (ctx.getParent() instanceof CoolParser.ProgramContext))
-            ctx = ctx.getParent();
-        
-        String message = "\"" + new File(Compiler.fileNames.get(ctx)).getName()
-                + "\", line " + info.getLine()
-                + ":" + (info.getCharPositionInLine() + 1)
-                + ", Semantic error: " + str;
-        
-        System.err.println(message);
-        
-        semanticErrors = true;
+    public void resolveDeclaredTypes() {
+        for (var classSymbol : hierarchy.getClasses())
+            resolveDeclaredTypes(classSymbol);
     }
 
-    public static MethodSymbol getMethod(TypeSymbol currentClass, String methodName) {
-        MethodSymbol methodSymbol;
-        while(true) {
-            methodSymbol = (MethodSymbol) currentClass.methodsScope.lookup(methodName);
-            if (methodSymbol != null) {
-                break;
-            }
-            if(currentClass.superClass == null)
-                break;
-            currentClass = (TypeSymbol) globals.lookup(currentClass.superClass);
+    /**
+     * Resolves the declared types of the features of a single class, which
+     * may be one left out of the global scope because it is redefined.
+     */
+    public void resolveDeclaredTypes(TypeSymbol classSymbol) {
+        for (var sym : classSymbol.attributesScope.getSymbols())
+            resolveType((IdSymbol) sym);
+        for (var sym : classSymbol.methodsScope.getSymbols()) {
+            var methodSymbol = (MethodSymbol) sym;
+            resolveType(methodSymbol);
+            for (var formal : methodSymbol.getFormals().values())
+                resolveType((IdSymbol) formal);
         }
-        return methodSymbol;
     }
 
-    public static MethodSymbol getSpecificMethod(TypeSymbol currentClass, String className, String methodName) {
-        MethodSymbol methodSymbol = null;
-        while(true) {
-            if(currentClass.name.equals(className))
-                methodSymbol = (MethodSymbol) currentClass.lookup(methodName);
-            if (methodSymbol != null) {
-                break;
+    /**
+     * Lays out the dispatch table of every class, once the hierarchy is
+     * built. Inherited methods keep their slots, an overriding method takes
+     * the slot of the method it overrides and new methods are appended, so a
+     * method has the same slot in all the subclasses of its class.
+     */
+    public void layoutDispatchTables() {
+        for (var classSymbol : hierarchy.getClasses()) {
+            var parent = hierarchy.getParent(classSymbol);
+            var table = parent == null
+                    ? new ArrayList<MethodSymbol>()
+                    : new ArrayList<>(parent.dispatchTable);
+            var slots = parent == null
+                    ? new HashMap<String, Integer>()
+                    : new HashMap<>(parent.methodSlots);
+
+            for (var sym : classSymbol.methodsScope.getSymbols()) {
+                var methodSymbol = (MethodSymbol) sym;
+                methodSymbol.classParent = classSymbol;
+
+                Integer slot = slots.get(methodSymbol.getName());
+                if (slot == null) {
+                    slot = table.size();
+                    table.add(methodSymbol);
+                    slots.put(methodSymbol.getName(), slot);
+                } else {
+                    table.set(slot, methodSymbol);
+                }
+                methodSymbol.dispatchSlot = slot;
             }
-            if(currentClass.superClass == null)
-                break;
-            currentClass = (TypeSymbol) globals.lookup(currentClass.superClass);
+
+            classSymbol.dispatchTable = table;
+            classSymbol.methodSlots = slots;
         }
-        return methodSymbol;
+    }
+
+    private void resolveType(IdSymbol sym) {
+        sym.typeSymbol = sym.type == null ? null : (TypeSymbol) globals.lookup(sym.type);
+    }
+
+    /**
+     * Reports a semantic error.
+     *
+     * @param file     Index of the file in which the error was found.
+     * @param position Line and column of the error, packed by Position.
+     * @param str      The error message.
+     */
+    public void error(int file, long position, String str) {
+        diagnostics.report(semanticError(file, position, str));
+    }
+
+    /**
+     * Records a semantic error without reporting it, for passes that report
+     * to a group of their own. Safe to call from several threads at once.
+     *
+     * @return the diagnostic to report, as {@link #error} would.
+     */
+    public Diagnostic semanticError(int file, long position, String str) {
+        var fileName = files.get(file);
+        filesWithErrors.add(fileName);
+        semanticErrors = true;
+
+        return new Diagnostic(fileName, Position.line(position), Position.column(position),
+                Diagnostic.Kind.SEMANTIC, str);
+    }
+
+    /**
+     * @return the method that a dispatch on an object of class
+     *         {@code currentClass} calls, or null if there is none.
+     */
+    public MethodSymbol getMethod(TypeSymbol currentClass, String methodName) {
+        Integer slot = currentClass.methodSlots.get(methodName);
+        return slot == null ? null : currentClass.dispatchTable.get(slot);
+    }
+
+    /**
+     * @return the method that a static dispatch to {@code className} calls,
+     *         for an object of class {@code currentClass}, or null if that
+     *         class is not an ancestor or has no such method.
+     */
+    public MethodSymbol getSpecificMethod(TypeSymbol currentClass, String className, String methodName) {
+        var staticType = (TypeSymbol) globals.lookup(className);
+        if (staticType == null || !hierarchy.isSubClass(staticType, currentClass))
+            return null;
+        return getMethod(staticType, methodName);
     }
     
-    public static void error(String str) {
-        String message = "Semantic error: " + str;
-        
-        System.err.println(message);
+    public void error(String str) {
+        diagnostics.report(new Diagnostic(null, 0, 0, Diagnostic.Kind.SEMANTIC, str));
         
         semanticErrors = true;
     }
     
-    public static boolean hasSemanticErrors() {
+    public boolean hasSemanticErrors() {
         return semanticErrors;
     }
+
+    public boolean hasSemanticErrors(String fileName) {
+        return filesWithErrors.contains(fileName);
+    }
+
+    // A class whose scopes count their lookups with the rest of the table.
+    public TypeSymbol newType(String name) {
+        return new TypeSymbol(name, lookups);
+    }
+
+    // A method whose scope counts its lookups with the rest of the table.
+    public MethodSymbol newMethod(Scope parent, String name) {
+        return new MethodSymbol(parent, name, lookups);
+    }
+
+    // Scopes searched by lookups so far, or 0 unless counting.
+    public long lookupCount() {
+        return lookups == null ? 0 : lookups.sum();
+    }
+
+    // Classes, attributes, methods and formal parameters defined so far,
+    // the basic classes included.
+    public int symbolCount() {
+        int count = 0;
+        for (var sym : globals.getSymbols()) {
+            var classSymbol = (TypeSymbol) sym;
+            count += 1 + classSymbol.attributesScope.getSymbols().size();
+            for (var method : classSymbol.methodsScope.getSymbols())
+                count += 1 + ((MethodSymbol) method).getFormals().size();
+        }
+        return count;
+    }
 }
@@ -1,16 +1,39 @@
 package cool.structures;
 
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 public class TypeSymbol extends Symbol implements Scope{
 
-    public Scope attributesScope = new DefaultScope(null);
-    public Scope methodsScope = new DefaultScope(null);
+    public DefaultScope attributesScope;
+    public DefaultScope methodsScope;
     public String superClass;
 
+    // Position in the class hierarchy, filled in by ClassHierarchy.
+    TypeSymbol parentType;
+    int depth;
+    int preorder;
+    int postorder;
+    boolean inCycle;
+
+    // Number of attributes of an instance, inherited ones included.
+    public int attributeCount;
+
+    // Methods of the class, inherited ones included, by dispatch table slot,
+    // and the slots of their names.
+    public List<MethodSymbol> dispatchTable;
+    Map<String, Integer> methodSlots;
+
     public TypeSymbol(String name) {
+        this(name, null);
+    }
+
+    // The scopes of the class count their lookups into lookups, unless null.
+    public TypeSymbol(String name, LongAdder lookups) {
         super(name);
+        attributesScope = new DefaultScope(null, lookups);
+        methodsScope = new DefaultScope(null, lookups);
         if (!name.equals("Object"))
             superClass = "Object";
     }
@@ -19,15 +42,6 @@ public class TypeSymbol extends Symbol implements Scope{
         this.superClass = superClass;
     }
     
-    // Symboluri aferente tipurilor, definite global
-    public static final TypeSymbol INT   = new TypeSymbol("Int");
-    public  static final TypeSymbol STRING = new TypeSymbol("String");
-    public static final TypeSymbol BOOL  = new TypeSymbol("Bool");
-    public  static final TypeSymbol OBJECT = new TypeSymbol("Object");
-    public  static final TypeSymbol IO = new TypeSymbol("IO");
-
-    public static final TypeSymbol  SELFTYPE = new TypeSymbol("SELF_TYPE");
-
     private final Scope parent = null;
 
     @Override
@@ -0,0 +1,72 @@
+package cool.tester;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Reports how much code the optimization passes remove, for every program
+ * in tests/ that compiles: the instructions in the text section, and how
+ * many of them are loads and stores, without the passes (--no-opt) and with
+ * them. If a simulator is given, both versions are also run, with no input,
+ * and their outputs are compared.
+ */
+public class OptimizationReport {
+    // java -cp "bin;antlr-4.8-complete.jar;%CLASSPATH%" -Dsimulator="spim -file" cool.tester.OptimizationReport
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final String[] TEST_DIR_NAMES = { "tests/tema1", "tests/tema2" };
+        var simulator = System.getProperty("simulator");
+
+        var filenameFilter = new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".cl");
+            }
+        };
+
+        var plainTotal = new RegAllocBenchmark.Counts();
+        var optimizedTotal = new RegAllocBenchmark.Counts();
+
+        System.out.printf("%-30s %24s %24s%n", "", "not optimized", "optimized");
+        System.out.printf("%-30s %8s %7s %7s %8s %7s %7s %8s%n", "program",
+                "instrs", "loads", "stores", "instrs", "loads", "stores", "removed");
+        for (var dirName : TEST_DIR_NAMES) {
+            var files = new File(dirName).listFiles(filenameFilter);
+            Arrays.sort(files);
+            for (var file : files) {
+                var plainFile = File.createTempFile("plain", ".s");
+                var optimizedFile = File.createTempFile("optimized", ".s");
+                try {
+                    // Programs with errors produce no code.
+                    if (!RegAllocBenchmark.compile(file, plainFile, "--no-opt")
+                            || !RegAllocBenchmark.compile(file, optimizedFile))
+                        continue;
+
+                    var plain = RegAllocBenchmark.Counts.of(plainFile);
+                    var optimized = RegAllocBenchmark.Counts.of(optimizedFile);
+                    plainTotal.add(plain);
+                    optimizedTotal.add(optimized);
+                    System.out.printf("%-30s %s %s %7.1f%%", file.getName(), plain, optimized,
+                            removed(plain, optimized));
+
+                    if (simulator != null) {
+                        var plainRun = RegAllocBenchmark.run(simulator, plainFile);
+                        var optimizedRun = RegAllocBenchmark.run(simulator, optimizedFile);
+                        System.out.print(plainRun.output.equals(optimizedRun.output)
+                                ? " same output" : " OUTPUT DIFFERS");
+                    }
+                    System.out.println();
+                } finally {
+                    plainFile.delete();
+                    optimizedFile.delete();
+                }
+            }
+        }
+        System.out.printf("%-30s %s %s %7.1f%%%n", "Total", plainTotal, optimizedTotal,
+                removed(plainTotal, optimizedTotal));
+    }
+
+    private static double removed(RegAllocBenchmark.Counts plain, RegAllocBenchmark.Counts optimized) {
+        if (plain.instructions == 0)
+            return 0;
+        return 100.0 * (plain.instructions - optimized.instructions) / plain.instructions;
+    }
+}
@@ -0,0 +1,157 @@
+package cool.tester;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Writes large Cool programs of a given shape, to see how the compiler
+ * scales with the size of its input. Each shape stresses one thing:
+ *
+ * CHAIN           an inheritance chain as deep as the size
+ * WIDE            as many sibling classes, joined pairwise by ifs
+ * CASE            a case with a branch for each of as many classes
+ * NESTED_LET      lets nested as deep, each reading the outermost variable
+ * NESTED_BLOCK    blocks nested as deep
+ * DISPATCH_CHAIN  a chain of as many dispatches on one object
+ * STRINGS         as many string constants of 1000 characters
+ *
+ * The programs are correct, unless invalid ones are asked for; these also
+ * get as many methods as the size, each using an undefined identifier, so
+ * that they report that many semantic errors.
+ */
+public class ProgramGenerator {
+    public enum Shape { CHAIN, WIDE, CASE, NESTED_LET, NESTED_BLOCK, DISPATCH_CHAIN, STRINGS }
+
+    // java -cp "bin;antlr-4.8-complete.jar;%CLASSPATH%" cool.tester.ProgramGenerator CHAIN 1000 [--invalid] [--output=big.cl]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ProgramGenerator <shape> <size> [--invalid] [--output=<file>]");
+            return;
+        }
+        var shape = Shape.valueOf(args[0].toUpperCase());
+        int size = Integer.parseInt(args[1]);
+        boolean valid = true;
+        String outputFile = null;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--invalid"))
+                valid = false;
+            else if (args[i].startsWith("--output="))
+                outputFile = args[i].substring("--output=".length());
+        }
+
+        var program = generate(shape, size, valid);
+        if (outputFile == null)
+            System.out.print(program);
+        else
+            Files.writeString(Paths.get(outputFile), program);
+    }
+
+    public static String generate(Shape shape, int size, boolean valid) {
+        var program = new StringBuilder();
+        String main;
+        switch (shape) {
+            case CHAIN: main = chain(program, size); break;
+            case WIDE: main = wide(program, size); break;
+            case CASE: main = caseOf(program, size); break;
+            case NESTED_LET: main = nestedLet(size); break;
+            case NESTED_BLOCK: main = nestedBlock(size); break;
+            case DISPATCH_CHAIN: main = dispatchChain(program, size); break;
+            default: main = strings(program, size);
+        }
+
+        program.append("class Main inherits IO {\n");
+        if (shape == Shape.STRINGS)
+            for (int i = 0; i < size; i++)
+                program.append("    s").append(i).append("() : String { \"").append(string(i)).append("\" };\n");
+        if (!valid)
+            for (int i = 0; i < size; i++)
+                program.append("    error").append(i).append("() : Int { undefined").append(i).append(" };\n");
+        program.append("    main() : Object {\n").append(main).append("\n    };\n};\n");
+        return program.toString();
+    }
+
+    // Each class overrides the method of its parent, so the dispatch tables
+    // stay the same size down the chain.
+    private static String chain(StringBuilder program, int size) {
+        program.append("class C0 inherits IO {\n    v : Int <- 0;\n    f() : Int { v };\n};\n");
+        for (int i = 1; i < size; i++)
+            program.append("class C").append(i).append(" inherits C").append(i - 1)
+                    .append(" {\n    f() : Int { ").append(i).append(" };\n};\n");
+        int last = size - 1;
+        return "        let c : C0 <- new C" + last + " in {\n"
+                + "            out_int(c.f());\n"
+                + "            out_string((if c.f() < 0 then new C" + last + " else new C" + last / 2
+                + " fi).type_name());\n"
+                + "            case c of d : C" + last + " => d.f(); o : Object => 0; esac;\n"
+                + "        }";
+    }
+
+    private static String wide(StringBuilder program, int size) {
+        program.append("class Base inherits IO {\n    f() : Int { 0 };\n};\n");
+        siblings(program, size);
+        var main = new StringBuilder("        let b : Base, i : Int in {\n");
+        for (int i = 0; i + 1 < size; i++)
+            main.append("            b <- if i < ").append(i).append(" then new K").append(i)
+                    .append(" else new K").append(i + 1).append(" fi;\n");
+        return main.append("            out_int(b.f());\n        }").toString();
+    }
+
+    private static String caseOf(StringBuilder program, int size) {
+        program.append("class Base inherits IO {\n    f() : Int { 0 };\n};\n");
+        siblings(program, size);
+        var main = new StringBuilder("        let b : Base <- new K").append(size / 2)
+                .append(" in\n            out_int(case b of\n");
+        for (int i = 0; i < size; i++)
+            main.append("                k").append(i).append(" : K").append(i).append(" => k").append(i)
+                    .append(".f();\n");
+        return main.append("                o : Object => 0;\n            esac)").toString();
+    }
+
+    private static void siblings(StringBuilder program, int size) {
+        for (int i = 0; i < size; i++)
+            program.append("class K").append(i).append(" inherits Base {\n    f() : Int { ")
+                    .append(i).append(" };\n};\n");
+    }
+
+    private static String nestedLet(int size) {
+        var main = new StringBuilder("        out_int(\n");
+        main.append("        let x0 : Int <- 0 in\n");
+        for (int i = 1; i < size; i++)
+            main.append("        let x").append(i).append(" : Int <- x").append(i - 1).append(" + x0 in\n");
+        return main.append("        x").append(size - 1).append(")").toString();
+    }
+
+    private static String nestedBlock(int size) {
+        var main = new StringBuilder("        ");
+        for (int i = 0; i < size; i++)
+            main.append("{ ").append(i).append("; ");
+        main.append("}");
+        for (int i = 1; i < size; i++)
+            main.append("; }");
+        return main.toString();
+    }
+
+    private static String dispatchChain(StringBuilder program, int size) {
+        program.append("class Node inherits IO {\n    next() : SELF_TYPE { self };\n};\n");
+        var main = new StringBuilder("        (new Node)");
+        for (int i = 0; i < size; i++)
+            main.append(i % 10 == 0 ? "\n            .next()" : ".next()");
+        return main.append(".out_string(\"done\\n\")").toString();
+    }
+
+    private static String strings(StringBuilder program, int size) {
+        var main = new StringBuilder("        {\n");
+        for (int i = 0; i < Math.min(size, 10); i++)
+            main.append("            out_int(s").append(i).append("().length());\n");
+        return main.append("        }").toString();
+    }
+
+    // 1000 characters, starting with the number so that no two are alike.
+    private static String string(int i) {
+        var string = new StringBuilder(i + " ");
+        for (int j = 0; string.length() < 1000; j++)
+            string.append((char) ('a' + j % 26));
+        return string.toString();
+    }
+}
@@ -0,0 +1,137 @@
+package cool.tester;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import cool.compiler.Compiler;
+
+/**
+ * Compares the code generated with and without register allocation, for
+ * every program in tests/ that compiles.
+ *
+ * For each program, prints the number of instructions in the text section
+ * and how many of them are loads and stores, once with every temp kept in
+ * the frame (--no-regalloc) and once with register allocation. If a simulator is
+ * given, both versions are also run, with no input, and their outputs are
+ * compared.
+ */
+public class RegAllocBenchmark {
+    // java -cp "bin;antlr-4.8-complete.jar;%CLASSPATH%" -Dsimulator="spim -file" cool.tester.RegAllocBenchmark
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final String[] TEST_DIR_NAMES = { "tests/tema1", "tests/tema2" };
+        var simulator = System.getProperty("simulator");
+
+        var filenameFilter = new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".cl");
+            }
+        };
+
+        var stackTotal = new Counts();
+        var allocatedTotal = new Counts();
+
+        System.out.printf("%-30s %24s %24s%n", "", "spilled", "allocated");
+        System.out.printf("%-30s %8s %7s %7s %8s %7s %7s%n", "program",
+                "instrs", "loads", "stores", "instrs", "loads", "stores");
+        for (var dirName : TEST_DIR_NAMES) {
+            var files = new File(dirName).listFiles(filenameFilter);
+            Arrays.sort(files);
+            for (var file : files) {
+                var stackFile = File.createTempFile("stack", ".s");
+                var allocatedFile = File.createTempFile("allocated", ".s");
+                try {
+                    // Programs with errors produce no code.
+                    if (!compile(file, stackFile, "--no-regalloc") || !compile(file, allocatedFile))
+                        continue;
+
+                    var stack = Counts.of(stackFile);
+                    var allocated = Counts.of(allocatedFile);
+                    stackTotal.add(stack);
+                    allocatedTotal.add(allocated);
+                    System.out.printf("%-30s %s %s", file.getName(), stack, allocated);
+
+                    if (simulator != null) {
+                        var stackRun = run(simulator, stackFile);
+                        var allocatedRun = run(simulator, allocatedFile);
+                        System.out.printf(" %6d ms %6d ms %s", stackRun.millis, allocatedRun.millis,
+                                stackRun.output.equals(allocatedRun.output) ? "same output" : "OUTPUT DIFFERS");
+                    }
+                    System.out.println();
+                } finally {
+                    stackFile.delete();
+                    allocatedFile.delete();
+                }
+            }
+        }
+        System.out.printf("%-30s %s %s%n", "Total", stackTotal, allocatedTotal);
+    }
+
+    static boolean compile(File program, File assembly, String... options) throws IOException {
+        var args = new ArrayList<String>(Arrays.asList(options));
+        args.add(program.getPath());
+        args.add("--output=" + assembly.getPath());
+        try {
+            Compiler.compile(args.toArray(new String[0]), new PrintStream(OutputStream.nullOutputStream()));
+        } catch (RuntimeException e) {
+            return false;
+        }
+        return assembly.length() > 0;
+    }
+
+    // Static counts over the text section of an assembly file.
+    static class Counts {
+        int instructions, loads, stores;
+
+        static Counts of(File assembly) throws IOException {
+            var counts = new Counts();
+            boolean text = false;
+            for (var line : Files.readAllLines(assembly.toPath())) {
+                line = line.trim();
+                if (line.equals(".text") || line.equals(".data")) {
+                    text = line.equals(".text");
+                    continue;
+                }
+                if (!text || line.isEmpty() || line.endsWith(":") || line.startsWith("."))
+                    continue;
+                counts.instructions++;
+                if (line.startsWith("lw "))
+                    counts.loads++;
+                else if (line.startsWith("sw "))
+                    counts.stores++;
+            }
+            return counts;
+        }
+
+        void add(Counts other) {
+            instructions += other.instructions;
+            loads += other.loads;
+            stores += other.stores;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%8d %7d %7d", instructions, loads, stores);
+        }
+    }
+
+    static class Run {
+        String output;
+        long millis;
+    }
+
+    static Run run(String simulator, File assembly) throws IOException, InterruptedException {
+        var command = new ArrayList<>(Arrays.asList(simulator.split(" ")));
+        command.add(assembly.getPath());
+        var result = new Run();
+        long start = System.nanoTime();
+        var process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        process.getOutputStream().close();
+        result.output = new String(process.getInputStream().readAllBytes());
+        process.waitFor(1, TimeUnit.MINUTES);
+        result.millis = (System.nanoTime() - start) / 1_000_000;
+        return result;
+    }
+}
@@ -0,0 +1,86 @@
+package cool.tester;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import cool.compiler.Compiler;
+import cool.tester.ProgramGenerator.Shape;
+
+/**
+ * Compiles generated programs of doubling size, for every shape, and prints
+ * how long each compilation takes. Time that more than triples when the
+ * size doubles is flagged, since that is well past n log n; below a tenth
+ * of a second the times are too noisy to tell.
+ *
+ * The compiler runs in this thread, so a stack overflow on deep nesting is
+ * reported as such instead of ending the run.
+ */
+public class StressTester {
+    private static final double SUPER_LINEAR_RATIO = 3.0;
+
+    // java -cp "bin;antlr-4.8-complete.jar;%CLASSPATH%" -DmaxSize=16000 cool.tester.StressTester [--invalid] [shape...]
+    public static void main(String[] args) throws IOException {
+        int minSize = Integer.getInteger("minSize", 250);
+        int maxSize = Integer.getInteger("maxSize", 8000);
+        boolean valid = true;
+        var shapes = new ArrayList<Shape>();
+        for (var arg : args) {
+            if (arg.equals("--invalid"))
+                valid = false;
+            else
+                shapes.add(Shape.valueOf(arg.toUpperCase()));
+        }
+        if (shapes.isEmpty())
+            shapes.addAll(List.of(Shape.values()));
+
+        // The first compilations also load and warm up the compiler.
+        time(ProgramGenerator.generate(Shape.CHAIN, minSize, valid));
+
+        System.out.printf("%-16s %8s %8s %10s %7s%n", "shape", "size", "lines", "ms", "ratio");
+        for (var shape : shapes) {
+            long previous = 0;
+            for (int size = minSize; size <= maxSize; size *= 2) {
+                var program = ProgramGenerator.generate(shape, size, valid);
+                long lines = program.chars().filter(c -> c == '\n').count();
+                System.out.printf("%-16s %8d %8d ", shape, size, lines);
+                long millis;
+                try {
+                    millis = time(program);
+                } catch (StackOverflowError e) {
+                    System.out.println("stack overflow");
+                    break;
+                }
+                System.out.printf("%10d", millis);
+                if (previous > 0) {
+                    double ratio = (double) millis / previous;
+                    boolean superLinear = ratio > SUPER_LINEAR_RATIO && millis >= 100;
+                    System.out.printf(" %7.2f%s", ratio, superLinear ? " super-linear" : "");
+                }
+                System.out.println();
+                previous = Math.max(millis, 1);
+            }
+        }
+    }
+
+    // Best of three compilations, in milliseconds.
+    private static long time(String program) throws IOException {
+        var source = File.createTempFile("stress", ".cl");
+        var assembly = File.createTempFile("stress", ".s");
+        try {
+            Files.writeString(source.toPath(), program);
+            var args = new String[] { source.getPath(), "--output=" + assembly.getPath() };
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                Compiler.compile(args, new PrintStream(OutputStream.nullOutputStream()));
+                best = Math.min(best, (System.nanoTime() - start) / 1_000_000);
+            }
+            return best;
+        } finally {
+            source.delete();
+            assembly.delete();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package cool.tester;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles every program in tests/tema3, runs it with the simulator, with no
+ * input, and compares what it prints with the .ref file. The simulator may
+ * print a banner of its own first, so only the end of its output is compared.
+ *
+ * Code that is never run is not checked by running it, so every label the
+ * program uses must also be defined, by the program or by the runtime.
+ */
+public class Tester3 {
+    // Labels defined by trap.handler.
+    private static final Set<String> RUNTIME_LABELS = Set.of(
+            "Object.copy", "Object.abort", "Object.type_name",
+            "IO.out_string", "IO.out_int", "IO.in_string", "IO.in_int",
+            "String.length", "String.concat", "String.substr",
+            "equality_test", "_dispatch_abort", "_case_abort", "_case_abort2",
+            "_NoGC_Init", "_NoGC_Collect", "_GenGC_Init", "_GenGC_Collect", "_GenGC_Assign",
+            "_ScnGC_Init", "_ScnGC_Collect");
+
+    private static final Pattern LABEL = Pattern.compile("[A-Za-z_][\\w.]*");
+
+    // java -cp "bin;antlr-4.8-complete.jar;%CLASSPATH%" -Dsimulator="spim -file" cool.tester.Tester3
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final String TEST_DIR_NAME = "tests/tema3";
+        var testDir = new File(TEST_DIR_NAME);
+        var simulator = System.getProperty("simulator", "spim -file");
+
+        var filenameFilter = new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".cl");
+            }
+        };
+
+        var total = 0;
+
+        var files = testDir.listFiles(filenameFilter);
+        Arrays.sort(files);
+        for (var file : files) {
+            var inPath = file.getPath();
+            var assembly = new File(inPath.replace(".cl", ".s"));
+            System.out.printf("%-30s -> ", file.getName());
+            // A program with errors leaves no assembly behind.
+            assembly.delete();
+            if (!RegAllocBenchmark.compile(file, assembly)) {
+                System.out.println("Failed to compile");
+                continue;
+            }
+
+            var undefined = undefinedLabels(assembly);
+            if (!undefined.isEmpty()) {
+                System.out.println("Undefined labels " + undefined);
+                continue;
+            }
+
+            var output = RegAllocBenchmark.run(simulator, assembly).output;
+            Files.writeString(new File(inPath.replace(".cl", ".out")).toPath(), output);
+            var ref = Files.readString(new File(inPath.replace(".cl", ".ref")).toPath());
+            if (output.replace("\r\n", "\n").endsWith(ref.replace("\r\n", "\n"))) {
+                System.out.println("OK");
+                total += 5;
+            } else
+                System.out.println("Failed");
+        }
+
+        System.out.println("Total: " + total);
+    }
+
+    // Labels used as operands but defined neither in the file nor in the
+    // runtime.
+    static Set<String> undefinedLabels(File assembly) throws IOException {
+        var defined = new HashSet<String>();
+        var used = new HashSet<String>();
+        for (var line : Files.readAllLines(assembly.toPath())) {
+            line = line.replaceFirst("#.*", "").trim();
+            if (line.endsWith(":")) {
+                defined.add(line.substring(0, line.length() - 1));
+                continue;
+            }
+            var parts = line.split("\\s+", 2);
+            // Directives other than .word name no label.
+            if (parts.length < 2 || parts[0].startsWith(".") && !parts[0].equals(".word"))
+                continue;
+            for (var operand : parts[1].split("[,\\s()]+"))
+                if (LABEL.matcher(operand).matches())
+                    used.add(operand);
+        }
+        used.removeAll(defined);
+        used.removeAll(RUNTIME_LABELS);
+        return used;
+    }
+}
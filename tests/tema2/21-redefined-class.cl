@@ -0,0 +1,8 @@
+class Main inherits IO {
+    main() : Object { out_int(1) };
+};
+
+class Main inherits IO {
+    print(x : Int, m : Main) : Object { m.print(x, m) };
+    main() : Object { print(2, self) };
+};
@@ -0,0 +1,11 @@
+class Main inherits IO {
+    main() : Object {
+        {
+            -- A later local of a let hides an earlier one of the same name.
+            let x : Int <- 1, x : Int <- x + 1 in out_int(x);
+            out_string("\n");
+            let s : String <- "a", s : Int <- s.length() + 2 in out_int(s);
+            out_string("\n");
+        }
+    };
+};
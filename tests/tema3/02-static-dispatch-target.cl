@@ -0,0 +1,26 @@
+class A {
+    g() : Int { 10 };
+};
+
+class B inherits A {
+    x : C <- new C;
+    f() : Int { 1 };
+};
+
+class C {
+    h() : Int { 100 };
+};
+
+class Main inherits IO {
+    b : B;
+
+    main() : Object {
+        {
+            -- B is never created, so b stays void and these dispatches are
+            -- never made; B still needs its dispatch table, and B.f and
+            -- the inherited A.g their code, but neither class needs a
+            -- prototype nor an initializer.
+            if isvoid b then out_string("void\n") else out_int(b@B.f() + b@B.g()) fi;
+        }
+    };
+};
@@ -0,0 +1,14 @@
+class Main inherits IO {
+    min : Int <- ~2147483647 - 1;
+
+    main() : Object {
+        {
+            -- Negating the least Int wraps around to itself, whether the
+            -- negation is folded at compile time or done at run time.
+            out_int(~min);
+            out_string("\n");
+            out_int(~(~2147483647 - 1));
+            out_string("\n");
+        }
+    };
+};
@@ -0,0 +1,39 @@
+class Animal inherits IO {
+    name() : String { "animal" };
+    speak() : Object { out_string(name().concat(" makes a sound\n")) };
+    describe() : Object { speak() };
+};
+
+class Dog inherits Animal {
+    name() : String { "dog" };
+    speak() : Object { out_string(name().concat(" barks\n")) };
+};
+
+class Puppy inherits Dog {
+    name() : String { "puppy" };
+};
+
+class Main inherits IO {
+    a : Animal;
+
+    main() : Object {
+        {
+            -- Dynamic dispatch picks the method of the class of the object.
+            a <- new Animal;
+            a.describe();
+            a <- new Dog;
+            a.describe();
+            a <- new Puppy;
+            a.describe();
+
+            -- Static dispatch picks the method of the named class, but
+            -- methods it calls are still dispatched dynamically.
+            (new Puppy)@Animal.speak();
+            (new Puppy)@Dog.speak();
+
+            -- Methods returning their receiver keep its dynamic class.
+            out_string((new Puppy).speak().type_name().concat("\n"));
+            out_string(a.copy().type_name().concat("\n"));
+        }
+    };
+};
@@ -0,0 +1,16 @@
+class A {
+    f() : Int { 1 };
+};
+
+class Main inherits IO {
+    a : A;
+
+    main() : Object {
+        {
+            out_string("before\n");
+            -- a was never assigned, so the dispatch aborts the program.
+            out_int(a.f());
+            out_string("after\n");
+        }
+    };
+};
@@ -0,0 +1,31 @@
+class A {};
+class B inherits A {};
+class C inherits B {};
+
+class Main inherits IO {
+    classify(x : Object) : String {
+        case x of
+            i : Int => "Int ".concat(if i < 0 then "negative" else "positive" fi);
+            s : String => "String ".concat(s);
+            b : Bool => if b then "Bool true" else "Bool false" fi;
+            c : C => "C";
+            a : A => "A";
+            o : Object => "Object ".concat(o.type_name());
+        esac
+    };
+
+    main() : Object {
+        {
+            -- The branch of the closest ancestor of the dynamic type is
+            -- taken, whatever the order of the branches.
+            out_string(classify(3).concat("\n"));
+            out_string(classify(~3).concat("\n"));
+            out_string(classify("s").concat("\n"));
+            out_string(classify(false).concat("\n"));
+            out_string(classify(new A).concat("\n"));
+            out_string(classify(new B).concat("\n"));
+            out_string(classify(new C).concat("\n"));
+            out_string(classify(self).concat("\n"));
+        }
+    };
+};
@@ -0,0 +1,16 @@
+class A {};
+class B inherits A {};
+
+class Main inherits IO {
+    main() : Object {
+        {
+            out_string("before\n");
+            -- No branch matches an A, so the program is aborted.
+            case new A of
+                b : B => out_string("B\n");
+                i : Int => out_string("Int\n");
+            esac;
+            out_string("after\n");
+        }
+    };
+};
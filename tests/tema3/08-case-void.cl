@@ -0,0 +1,16 @@
+class A {};
+
+class Main inherits IO {
+    a : A;
+
+    main() : Object {
+        {
+            out_string("before\n");
+            -- A case on a void object aborts, even with an Object branch.
+            case a of
+                o : Object => out_string("Object\n");
+            esac;
+            out_string("after\n");
+        }
+    };
+};
@@ -0,0 +1,42 @@
+class Main inherits IO {
+    x : Int <- 100;
+
+    main() : Object {
+        {
+            -- Locals start with the default value of their type.
+            let i : Int, s : String, b : Bool, o : Object in {
+                out_int(i);
+                out_string("[".concat(s).concat("]"));
+                out_string(if b then " true" else " false" fi);
+                out_string(if isvoid o then " void\n" else " object\n" fi);
+            };
+
+            -- A let hides an attribute of the same name until it ends.
+            let x : Int <- x + 1 in {
+                out_int(x);
+                out_string("\n");
+                let x : Int <- x * 2 in {
+                    out_int(x);
+                    out_string("\n");
+                };
+                x <- x + 10;
+                out_int(x);
+                out_string("\n");
+            };
+            out_int(x);
+            out_string("\n");
+
+            -- Each iteration gets a fresh local.
+            let n : Int <- 0, sum : Int in {
+                while n < 5 loop
+                    let square : Int <- n * n in {
+                        sum <- sum + square;
+                        n <- n + 1;
+                    }
+                pool;
+                out_int(sum);
+                out_string("\n");
+            };
+        }
+    };
+};
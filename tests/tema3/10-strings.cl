@@ -0,0 +1,19 @@
+class Main inherits IO {
+    main() : Object {
+        let s : String <- "Hello", t : String <- s.concat(", world") in {
+            out_string(t.concat("\n"));
+            out_int(t.length());
+            out_string("\n");
+            out_string(t.substr(7, 5).concat("\n"));
+            out_string(t.substr(0, 0).concat("|\n"));
+
+            -- Strings are equal when their characters are.
+            out_string(if s = "Hel".concat("lo") then "equal\n" else "different\n" fi);
+            out_string(if s = t then "equal\n" else "different\n" fi);
+
+            out_string("tab\there, quote \" and backslash \\\n");
+            out_string(s.type_name().concat(" ").concat(s.type_name().type_name()).concat("\n"));
+            out_string("".concat("").concat("empty ").concat("".length().type_name()).concat("\n"));
+        }
+    };
+};
@@ -0,0 +1,35 @@
+class Main inherits IO {
+    print(x : Int) : Object {
+        {
+            out_int(x);
+            out_string("\n");
+        }
+    };
+
+    fact(n : Int) : Int {
+        if n = 0 then 1 else n * fact(n - 1) fi
+    };
+
+    main() : Object {
+        let a : Int <- 17, b : Int <- 5 in {
+            print(a + b * 2);
+            print((a + b) * 2);
+            print(a - b - 2);
+            -- Division truncates towards zero.
+            print(a / b);
+            print(~a / b);
+            print(a - a / b * b);
+            print(~(a - b));
+            print(fact(10));
+
+            out_string(if a < b then "less\n" else "not less\n" fi);
+            out_string(if b <= 5 then "at most\n" else "more\n" fi);
+            out_string(if not (a = b) then "unequal\n" else "equal\n" fi);
+            out_string(if isvoid a then "void\n" else "not void\n" fi);
+
+            -- Ints wrap around.
+            print(2147483647 + 1);
+            print(65536 * 65536 + 3);
+        }
+    };
+};
@@ -0,0 +1,16 @@
+class A {
+    stop() : Object { abort() };
+};
+
+class B inherits A {};
+
+class Main inherits IO {
+    main() : Object {
+        {
+            out_string("before\n");
+            -- abort names the dynamic class of the receiver.
+            (new B).stop();
+            out_string("after\n");
+        }
+    };
+};